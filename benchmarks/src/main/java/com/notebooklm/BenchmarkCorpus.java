@@ -0,0 +1,85 @@
+package com.notebooklm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic corpus for benchmarks.
+ * Every corpus is generated from a fixed seed so runs are comparable across changes.
+ */
+public final class BenchmarkCorpus {
+    public static final long SEED = 42L;
+
+    private static final String[] WORDS = {
+        "solr", "vector", "embedding", "granite", "document", "chunk", "retrieval", "context",
+        "notebook", "question", "answer", "source", "index", "query", "model", "token",
+        "paragraph", "section", "report", "analysis", "result", "method", "system", "data",
+        "the", "a", "of", "and", "to", "in", "is", "for", "with", "on", "by", "from"
+    };
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * Generates a document of roughly the given number of paragraphs.
+     */
+    public static EnhancedDocumentProcessor.ProcessedDocument document(int paragraphs, long seed) {
+        Random random = new Random(seed);
+        StringBuilder content = new StringBuilder();
+        for (int p = 0; p < paragraphs; p++) {
+            int sentences = 3 + random.nextInt(6);
+            for (int s = 0; s < sentences; s++) {
+                content.append(sentence(random)).append(' ');
+            }
+            content.append("\n\n");
+        }
+        return new EnhancedDocumentProcessor.ProcessedDocument(
+            "/corpus/doc-" + seed + ".txt",
+            "doc-" + seed + ".txt",
+            content.toString(),
+            new HashMap<>(),
+            "benchmark"
+        );
+    }
+
+    /**
+     * Generates retrieved chunks of approximately the given character length.
+     */
+    public static List<EnhancedDocumentProcessor.DocumentChunk> chunks(int count, int chunkChars, long seed) {
+        Random random = new Random(seed);
+        List<EnhancedDocumentProcessor.DocumentChunk> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder content = new StringBuilder(chunkChars + 64);
+            while (content.length() < chunkChars) {
+                content.append(sentence(random)).append(' ');
+            }
+            chunks.add(new EnhancedDocumentProcessor.DocumentChunk(
+                "/corpus/doc-" + i + ".txt", "doc-" + i + ".txt", content.toString(), i));
+        }
+        return chunks;
+    }
+
+    /**
+     * Generates a question-like string.
+     */
+    public static String question(long seed) {
+        Random random = new Random(seed);
+        return "What does the " + sentence(random).toLowerCase().replace(".", "") + " mean?";
+    }
+
+    private static String sentence(Random random) {
+        int words = 6 + random.nextInt(14);
+        StringBuilder sentence = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (w == 0) {
+                sentence.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+            } else {
+                sentence.append(' ').append(word);
+            }
+        }
+        return sentence.append('.').toString();
+    }
+}
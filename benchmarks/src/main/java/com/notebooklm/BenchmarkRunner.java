@@ -0,0 +1,28 @@
+package com.notebooklm;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmark suites and writes JSON results for comparison between builds.
+ * Usage: java -jar target/benchmarks.jar [regex] [result-file]
+ * Defaults to all suites and target/jmh-results.json.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        String include = args.length > 0 ? args[0] : "com\\.notebooklm\\..*Benchmark";
+        String resultFile = args.length > 1 ? args[1] : "target/jmh-results.json";
+
+        Options options = new OptionsBuilder()
+            .include(include)
+            .resultFormat(ResultFormatType.JSON)
+            .result(resultFile)
+            .shouldFailOnError(true)
+            .build();
+
+        new Runner(options).run();
+        System.out.println("✓ Benchmark results written to " + resultFile);
+    }
+}
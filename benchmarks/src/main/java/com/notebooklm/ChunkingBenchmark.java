@@ -0,0 +1,32 @@
+package com.notebooklm;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures EnhancedDocumentProcessor.chunkDocument over documents of different sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkingBenchmark {
+    @Param({"10", "100", "1000"})
+    public int paragraphs;
+
+    private EnhancedDocumentProcessor.ProcessedDocument document;
+
+    @Setup
+    public void setup() {
+        document = BenchmarkCorpus.document(paragraphs, BenchmarkCorpus.SEED);
+    }
+
+    @Benchmark
+    public List<EnhancedDocumentProcessor.DocumentChunk> chunkDocument() {
+        return EnhancedDocumentProcessor.chunkDocument(document);
+    }
+}
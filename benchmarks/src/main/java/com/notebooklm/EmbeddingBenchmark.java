@@ -0,0 +1,42 @@
+package com.notebooklm;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Java-side cost of producing embeddings for a batch of chunks
+ * through the GraniteModelWrapper API, using the deterministic stub model.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmbeddingBenchmark {
+    @Param({"384"})
+    public int dimension;
+
+    @Param({"500", "1000"})
+    public int chunkChars;
+
+    private GraniteModelWrapper model;
+    private List<EnhancedDocumentProcessor.DocumentChunk> chunks;
+
+    @Setup
+    public void setup() {
+        model = new StubGraniteModelWrapper(dimension);
+        chunks = BenchmarkCorpus.chunks(32, chunkChars, BenchmarkCorpus.SEED);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(32)
+    public void embedChunks(Blackhole blackhole) {
+        for (EnhancedDocumentProcessor.DocumentChunk chunk : chunks) {
+            blackhole.consume(model.generateEmbedding(chunk.getContent()));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.notebooklm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread-safe collector of per-stage latencies with percentile reporting.
+ */
+public class LatencyRecorder {
+    private final Map<String, List<Long>> samples = new LinkedHashMap<>();
+
+    public synchronized void record(String stage, long nanos) {
+        samples.computeIfAbsent(stage, k -> new ArrayList<>()).add(nanos);
+    }
+
+    /**
+     * Formats count, mean, p50, p95, p99 and max in milliseconds for every stage.
+     */
+    public synchronized String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-12s %8s %10s %10s %10s %10s %10s%n",
+            "stage", "count", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, List<Long>> entry : samples.entrySet()) {
+            long[] sorted = entry.getValue().stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            double mean = Arrays.stream(sorted).average().orElse(0);
+            report.append(String.format("%-12s %8d %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+                entry.getKey(), sorted.length, mean / 1e6,
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.95) / 1e6,
+                percentile(sorted, 0.99) / 1e6, sorted.length > 0 ? sorted[sorted.length - 1] / 1e6 : 0.0));
+        }
+        return report.toString();
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
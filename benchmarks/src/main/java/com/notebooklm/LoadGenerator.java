@@ -0,0 +1,286 @@
+package com.notebooklm;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End-to-end load generator for the RAG question path.
+ *
+ * Replays a question workload at a fixed concurrency (closed loop) or a Poisson arrival
+ * rate (open loop) and reports throughput plus per-stage latency percentiles for
+ * embedding, retrieval, prompt building, generation and CouchDB persistence.
+ *
+ * By default everything runs in-process against the stub model and an in-memory vector
+ * index, so it works without Solr, CouchDB or the native model. Pass --solr-url and
+ * --couch-url to include those services, or --mode=http to generate via /api/generate.
+ *
+ * Usage: java -cp target/benchmarks.jar com.notebooklm.LoadGenerator [--key=value ...]
+ */
+public class LoadGenerator {
+    private final Map<String, String> options;
+    private final LatencyRecorder recorder = new LatencyRecorder();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final GraniteModelWrapper model;
+    private final int topK;
+
+    private SolrVectorDB solr;
+    private InMemoryIndex memoryIndex;
+    private CouchDBClient couchDB;
+    private HttpTransport transport;
+    private InternalLLMClient llmClient;
+
+    public LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        int dimension = intOption("dimension", 384);
+        this.model = new StubGraniteModelWrapper(dimension, intOption("stub-latency-ms", 50));
+        this.topK = intOption("topK", 5);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        new LoadGenerator(options).run();
+    }
+
+    public void run() throws Exception {
+        setUp();
+        try {
+            List<String> questions = loadQuestions();
+            int requests = intOption("requests", 200);
+            int concurrency = intOption("concurrency", 8);
+            double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+
+            System.out.println("🚀 Replaying " + requests + " questions, concurrency=" + concurrency +
+                (rate > 0 ? ", rate=" + rate + "/s" : ", closed loop"));
+
+            long start = System.nanoTime();
+            if (rate > 0) {
+                runOpenLoop(questions, requests, concurrency, rate);
+            } else {
+                runClosedLoop(questions, requests, concurrency);
+            }
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.println();
+            System.out.printf("Completed %d requests (%d failed) in %.2f s, throughput %.2f req/s%n",
+                requests - failures.get(), failures.get(), elapsedSeconds, (requests - failures.get()) / elapsedSeconds);
+            System.out.print(recorder.report());
+        } finally {
+            tearDown();
+        }
+    }
+
+    private void setUp() throws Exception {
+        if (options.containsKey("solr-url")) {
+            solr = new SolrVectorDB(options.get("solr-url"), options.getOrDefault("solr-core", "documents"), model);
+        } else {
+            memoryIndex = new InMemoryIndex(model, intOption("corpus-chunks", 2000));
+        }
+
+        transport = new HttpTransport(new HttpTransport.Settings());
+        if (options.containsKey("couch-url")) {
+            couchDB = new CouchDBClient(
+                options.get("couch-url"),
+                options.getOrDefault("couch-db", "rag_loadtest"),
+                options.getOrDefault("couch-user", "admin"),
+                options.getOrDefault("couch-password", "password"),
+                10000, 100, transport);
+        }
+        if ("http".equals(options.get("mode"))) {
+            llmClient = new InternalLLMClient(transport,
+                options.getOrDefault("endpoint", "http://localhost:8080/api/generate"));
+        }
+    }
+
+    private void tearDown() throws Exception {
+        if (couchDB != null) {
+            couchDB.close();
+        }
+        if (solr != null) {
+            solr.close();
+        }
+        transport.close();
+    }
+
+    private List<String> loadQuestions() throws Exception {
+        if (options.containsKey("questions")) {
+            List<String> questions = new ArrayList<>();
+            for (String line : Files.readAllLines(Paths.get(options.get("questions")))) {
+                if (!line.isBlank()) {
+                    questions.add(line.trim());
+                }
+            }
+            return questions;
+        }
+        List<String> questions = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            questions.add(BenchmarkCorpus.question(BenchmarkCorpus.SEED + i));
+        }
+        return questions;
+    }
+
+    private void runClosedLoop(List<String> questions, int requests, int concurrency) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (int w = 0; w < concurrency; w++) {
+            workers.submit(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < requests) {
+                    ask(questions.get(i % questions.size()), System.nanoTime());
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.DAYS);
+    }
+
+    private void runOpenLoop(List<String> questions, int requests, int concurrency, double rate) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        Random arrivals = new Random(BenchmarkCorpus.SEED);
+        long nextArrival = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            // Exponential inter-arrival times give a Poisson arrival process
+            nextArrival += (long) (-Math.log(1.0 - arrivals.nextDouble()) / rate * 1e9);
+            long sleepNanos = nextArrival - System.nanoTime();
+            if (sleepNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+            String question = questions.get(i % questions.size());
+            long arrival = nextArrival;
+            workers.submit(() -> ask(question, arrival));
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.DAYS);
+    }
+
+    /**
+     * Runs one question through every stage, recording each stage's latency.
+     */
+    private void ask(String question, long arrivalNanos) {
+        try {
+            long t0 = System.nanoTime();
+            recorder.record("queue", t0 - arrivalNanos);
+
+            List<Float> embedding = model.generateEmbedding(question);
+            long t1 = System.nanoTime();
+            recorder.record("embedding", t1 - t0);
+
+            List<EnhancedDocumentProcessor.DocumentChunk> chunks = retrieve(question, embedding);
+            long t2 = System.nanoTime();
+            recorder.record("retrieval", t2 - t1);
+
+            String prompt = IntegratedRAGSystem.buildPrompt(question, chunks);
+            long t3 = System.nanoTime();
+            recorder.record("prompt", t3 - t2);
+
+            String response = llmClient != null ? llmClient.generateTextResponse(prompt) : model.generateResponse(prompt);
+            long t4 = System.nanoTime();
+            recorder.record("generation", t4 - t3);
+
+            if (couchDB != null) {
+                List<String> sources = new ArrayList<>();
+                for (EnhancedDocumentProcessor.DocumentChunk chunk : chunks) {
+                    sources.add(chunk.getTitle());
+                }
+                couchDB.storeConversation("loadtest", question, response, sources, "stub");
+            }
+            long t5 = System.nanoTime();
+            recorder.record("persistence", t5 - t4);
+            recorder.record("total", t5 - arrivalNanos);
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            System.err.println("Request failed: " + e.getMessage());
+        }
+    }
+
+    private List<EnhancedDocumentProcessor.DocumentChunk> retrieve(String question, List<Float> embedding) throws Exception {
+        if (memoryIndex != null) {
+            return memoryIndex.search(embedding, topK);
+        }
+        List<EnhancedDocumentProcessor.DocumentChunk> chunks = new ArrayList<>();
+        int index = 0;
+        for (SolrVectorDB.SearchResult result : solr.search(question, embedding, topK)) {
+            chunks.add(new EnhancedDocumentProcessor.DocumentChunk(
+                result.getFilePath(), result.getTitle(), result.getContent(), index++));
+        }
+        return chunks;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Brute-force cosine index over a synthetic corpus, standing in for Solr kNN.
+     */
+    private static class InMemoryIndex {
+        private final List<EnhancedDocumentProcessor.DocumentChunk> chunks;
+        private final float[][] vectors;
+
+        InMemoryIndex(GraniteModelWrapper model, int size) {
+            this.chunks = BenchmarkCorpus.chunks(size, 1000, BenchmarkCorpus.SEED);
+            this.vectors = new float[size][];
+            for (int i = 0; i < size; i++) {
+                vectors[i] = normalize(model.generateEmbedding(chunks.get(i).getContent()));
+            }
+        }
+
+        List<EnhancedDocumentProcessor.DocumentChunk> search(List<Float> embedding, int topK) {
+            float[] query = normalize(embedding);
+            int[] best = new int[topK];
+            double[] bestScores = new double[topK];
+            Arrays.fill(bestScores, Double.NEGATIVE_INFINITY);
+            for (int i = 0; i < vectors.length; i++) {
+                double score = 0.0;
+                for (int d = 0; d < query.length; d++) {
+                    score += query[d] * vectors[i][d];
+                }
+                // Insertion into the small sorted top-k array
+                for (int k = 0; k < topK; k++) {
+                    if (score > bestScores[k]) {
+                        System.arraycopy(bestScores, k, bestScores, k + 1, topK - k - 1);
+                        System.arraycopy(best, k, best, k + 1, topK - k - 1);
+                        bestScores[k] = score;
+                        best[k] = i;
+                        break;
+                    }
+                }
+            }
+            List<EnhancedDocumentProcessor.DocumentChunk> results = new ArrayList<>(topK);
+            for (int k = 0; k < Math.min(topK, vectors.length); k++) {
+                results.add(chunks.get(best[k]));
+            }
+            return results;
+        }
+
+        private static float[] normalize(List<Float> embedding) {
+            float[] vector = new float[embedding.size()];
+            double norm = 0.0;
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = embedding.get(i);
+                norm += vector[i] * vector[i];
+            }
+            if (norm > 0.0) {
+                float inverse = (float) (1.0 / Math.sqrt(norm));
+                for (int i = 0; i < vector.length; i++) {
+                    vector[i] *= inverse;
+                }
+            }
+            return vector;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.notebooklm;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures prompt construction in IntegratedRAGSystem from retrieved chunks, with and
+ * without fitting them to a token budget first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PromptAssemblyBenchmark {
+    @Param({"5", "20"})
+    public int chunkCount;
+
+    @Param({"1000"})
+    public int chunkChars;
+
+    private String question;
+    private List<EnhancedDocumentProcessor.DocumentChunk> chunks;
+    private ContextPacker packer;
+
+    @Setup
+    public void setup() {
+        question = BenchmarkCorpus.question(BenchmarkCorpus.SEED);
+        chunks = BenchmarkCorpus.chunks(chunkCount, chunkChars, BenchmarkCorpus.SEED);
+        packer = new ContextPacker(text -> (text.length() + 3) / 4, 2500, 32);
+    }
+
+    @Benchmark
+    public String buildPrompt() {
+        return IntegratedRAGSystem.buildPrompt(question, chunks);
+    }
+
+    @Benchmark
+    public String packAndBuildPrompt() {
+        return IntegratedRAGSystem.buildPrompt(question, packer.pack(chunks));
+    }
+}
@@ -0,0 +1,38 @@
+package com.notebooklm;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the hybrid kNN + keyword query sent to Solr by SolrVectorDB.search.
+ * Query construction runs in-process; no Solr instance is required.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetrievalQueryBenchmark {
+    @Param({"384", "4096"})
+    public int dimension;
+
+    @Param({"5", "20"})
+    public int topK;
+
+    private String question;
+    private List<Float> embedding;
+
+    @Setup
+    public void setup() {
+        question = BenchmarkCorpus.question(BenchmarkCorpus.SEED);
+        embedding = new StubGraniteModelWrapper(dimension).generateEmbedding(question);
+    }
+
+    @Benchmark
+    public String buildHybridQuery() {
+        return SolrVectorDB.buildHybridQuery(question, embedding, topK);
+    }
+}
@@ -0,0 +1,59 @@
+package com.notebooklm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic stand-in for the native Granite model.
+ * Embeddings are derived from token hashes so they are stable across runs
+ * and cost roughly proportional to the input length, with no console output.
+ */
+public class StubGraniteModelWrapper extends GraniteModelWrapper {
+    private final int dimension;
+    private final long responseLatencyMs;
+
+    public StubGraniteModelWrapper(int dimension) {
+        this(dimension, 0);
+    }
+
+    /**
+     * Creates a stub whose responses take the given time, to emulate generation cost under load.
+     */
+    public StubGraniteModelWrapper(int dimension, long responseLatencyMs) {
+        super("stub");
+        this.dimension = dimension;
+        this.responseLatencyMs = responseLatencyMs;
+    }
+
+    @Override
+    public String generateResponse(String prompt) {
+        if (responseLatencyMs > 0) {
+            try {
+                Thread.sleep(responseLatencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return "Stub response for prompt of length " + prompt.length();
+    }
+
+    @Override
+    public List<Float> generateEmbedding(String text) {
+        float[] vector = new float[dimension];
+        int start = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || Character.isWhitespace(text.charAt(i))) {
+                if (i > start) {
+                    int hash = text.substring(start, i).hashCode();
+                    vector[Math.floorMod(hash, dimension)] += (hash & 1) == 0 ? 1.0f : -1.0f;
+                }
+                start = i + 1;
+            }
+        }
+        List<Float> embedding = new ArrayList<>(dimension);
+        for (float value : vector) {
+            embedding.add(value);
+        }
+        return embedding;
+    }
+}
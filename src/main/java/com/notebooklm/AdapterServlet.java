@@ -0,0 +1,99 @@
+package com.notebooklm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.stream.Collectors;
+
+/**
+ * Manages LoRA adapters at runtime under /api/adapters: GET lists them, POST
+ * {"name", "file", "scale"} loads one from the adapter directory (refused when none is
+ * configured) and DELETE ?name= unloads one once its running generations finish.
+ */
+public class AdapterServlet extends HttpServlet {
+    private final LoraAdapters adapters;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public AdapterServlet(LoraAdapters adapters) {
+        this.adapters = adapters;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        ArrayNode list = objectMapper.createArrayNode();
+        for (LoraAdapters.Adapter adapter : adapters.list()) {
+            ObjectNode node = list.addObject();
+            node.put("name", adapter.getName());
+            node.put("path", adapter.getPath());
+            node.put("scale", adapter.getScale());
+        }
+        ObjectNode responseNode = objectMapper.createObjectNode();
+        responseNode.set("adapters", list);
+        writeJson(resp, HttpServletResponse.SC_OK, responseNode);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String name;
+        String file;
+        float scale;
+        try {
+            String body = req.getReader().lines().collect(Collectors.joining(System.lineSeparator()));
+            JsonNode requestNode = objectMapper.readTree(body);
+            if (requestNode == null || !requestNode.hasNonNull("name") || !requestNode.hasNonNull("file")) {
+                throw new IllegalArgumentException("name and file are required");
+            }
+            name = requestNode.get("name").asText();
+            file = requestNode.get("file").asText();
+            scale = (float) requestNode.path("scale").asDouble(1.0);
+        } catch (Exception e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid adapter request: " + e.getMessage());
+            return;
+        }
+
+        try {
+            adapters.load(name, file, scale);
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        } catch (IllegalStateException e) {
+            resp.sendError(HttpServletResponse.SC_CONFLICT, e.getMessage());
+            return;
+        } catch (IOException e) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+            return;
+        }
+        ObjectNode responseNode = objectMapper.createObjectNode();
+        responseNode.put("name", name);
+        responseNode.put("status", "loaded");
+        writeJson(resp, HttpServletResponse.SC_CREATED, responseNode);
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String name = req.getParameter("name");
+        try {
+            if (name == null || !adapters.unload(name)) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND, "No LoRA adapter named " + name);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Interrupted while unloading " + name);
+            return;
+        }
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    private void writeJson(HttpServletResponse resp, int status, JsonNode node) throws IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setStatus(status);
+        resp.getWriter().write(objectMapper.writeValueAsString(node));
+    }
+}
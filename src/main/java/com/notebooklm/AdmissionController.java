@@ -0,0 +1,290 @@
+package com.notebooklm;
+
+import io.micrometer.core.instrument.Gauge;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for model inference.
+ * Limits the number of concurrent generations, queues the overflow with interactive
+ * requests ahead of batch requests, and rejects work that cannot start before its
+ * deadline instead of letting latency grow for every caller.
+ */
+public class AdmissionController implements AutoCloseable {
+
+    public enum Priority {
+        INTERACTIVE, BATCH;
+
+        /**
+         * Parses a priority name, defaulting to INTERACTIVE.
+         */
+        public static Priority parse(String value) {
+            return "batch".equalsIgnoreCase(value) ? BATCH : INTERACTIVE;
+        }
+    }
+
+    private final Settings settings;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private final Deque<Object> interactiveQueue = new ArrayDeque<>();
+    private final Deque<Object> batchQueue = new ArrayDeque<>();
+    private int running;
+    // Moving average of how long an admitted request holds its slot, for Retry-After
+    private double averageServiceNanos = TimeUnit.SECONDS.toNanos(5);
+    private final Gauge interactiveQueueGauge;
+    private final Gauge batchQueueGauge;
+
+    public AdmissionController(Settings settings) {
+        this.settings = settings;
+        this.interactiveQueueGauge = RagMetrics.gauge("rag.inference.queue.depth", this::getQueuedCount, "priority", "interactive");
+        this.batchQueueGauge = RagMetrics.gauge("rag.inference.queue.depth", this::getBatchQueuedCount, "priority", "batch");
+    }
+
+    /**
+     * Creates a controller configured from rag.config.inference.* properties.
+     */
+    public static AdmissionController fromConfig(Properties config) {
+        return new AdmissionController(Settings.fromConfig(config));
+    }
+
+    /**
+     * Returns the deadline applied when a request does not specify one.
+     */
+    public long getDefaultDeadlineMs() {
+        return settings.defaultDeadlineMs;
+    }
+
+    /**
+     * Returns the longest deadline a request may ask for.
+     */
+    public long getMaxDeadlineMs() {
+        return settings.maxDeadlineMs;
+    }
+
+    /**
+     * Returns how many prompts a batch job may decode together under one slot.
+     */
+    public int getMaxBatchSize() {
+        return settings.maxBatchSize;
+    }
+
+    /**
+     * Returns how many batch jobs may be unfinished at once.
+     */
+    public int getMaxBatchJobs() {
+        return settings.maxBatchJobs;
+    }
+
+    /**
+     * Returns how many prompts a single batch job may contain.
+     */
+    public int getMaxBatchPrompts() {
+        return settings.maxBatchPrompts;
+    }
+
+    /**
+     * Waits for a generation slot. Interactive requests are admitted before queued
+     * batch requests; within a class requests are admitted in arrival order.
+     *
+     * @param deadlineNanos System.nanoTime() by which the request must have started
+     * @throws RejectedException if the queue is full or the deadline passes while waiting
+     */
+    public Permit acquire(Priority priority, long deadlineNanos) throws InterruptedException, RejectedException {
+        return acquire(priority, deadlineNanos, null);
+    }
+
+    /**
+     * Waits for a generation slot, leaving the queue as soon as the request is cancelled
+     * so an abandoned request does not hold a queue position until its deadline.
+     *
+     * @param cancellation the request's token, or null
+     * @throws CancellationException if the request is cancelled while queued
+     */
+    public Permit acquire(Priority priority, long deadlineNanos, CancellationToken cancellation)
+            throws InterruptedException, RejectedException {
+        Object ticket = new Object();
+        // Wakes the waiter below when the request is cancelled
+        Runnable wake = () -> {
+            lock.lock();
+            try {
+                slotFreed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        };
+        lock.lock();
+        try {
+            if (running < settings.maxConcurrency && interactiveQueue.isEmpty()
+                    && (priority == Priority.INTERACTIVE || batchQueue.isEmpty())) {
+                running++;
+                return new Permit();
+            }
+
+            Deque<Object> queue = priority == Priority.INTERACTIVE ? interactiveQueue : batchQueue;
+            int limit = priority == Priority.INTERACTIVE ? settings.maxQueueDepth : settings.maxBatchQueueDepth;
+            if (queue.size() >= limit) {
+                RagMetrics.counter("rag.inference.rejected", "reason", "queue_full").increment();
+                throw new RejectedException(429, "Inference queue is full", retryAfterSeconds());
+            }
+
+            queue.addLast(ticket);
+            if (cancellation != null) {
+                cancellation.onCancel(wake);
+            }
+            try {
+                while (running >= settings.maxConcurrency || !isNext(ticket, priority)) {
+                    long remaining = deadlineNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        RagMetrics.counter("rag.inference.rejected", "reason", "deadline").increment();
+                        throw new RejectedException(503, "Request deadline expired while queued", retryAfterSeconds());
+                    }
+                    if (cancellation != null && cancellation.isCancelled()) {
+                        RagMetrics.counter("rag.inference.rejected", "reason", "cancelled").increment();
+                        throw new CancellationException("Cancelled while queued");
+                    }
+                    slotFreed.awaitNanos(remaining);
+                }
+                running++;
+                return new Permit();
+            } finally {
+                if (cancellation != null) {
+                    cancellation.removeCallback(wake);
+                }
+                queue.remove(ticket);
+                // Whoever is now at the head may be able to proceed
+                slotFreed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isNext(Object ticket, Priority priority) {
+        if (priority == Priority.INTERACTIVE) {
+            return interactiveQueue.peekFirst() == ticket;
+        }
+        return interactiveQueue.isEmpty() && batchQueue.peekFirst() == ticket;
+    }
+
+    /**
+     * Estimates the seconds until a new request could be admitted.
+     */
+    private long retryAfterSeconds() {
+        int waiting = interactiveQueue.size() + batchQueue.size() + 1;
+        double waves = Math.ceil((double) waiting / settings.maxConcurrency);
+        return Math.max(1L, (long) Math.ceil(waves * averageServiceNanos / 1e9));
+    }
+
+    private void release(long serviceNanos) {
+        lock.lock();
+        try {
+            running--;
+            averageServiceNanos = 0.8 * averageServiceNanos + 0.2 * serviceNanos;
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRunningCount() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return interactiveQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getBatchQueuedCount() {
+        lock.lock();
+        try {
+            return batchQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops reporting this controller's queue depths, so a replacement controller's
+     * gauges are registered in their place.
+     */
+    @Override
+    public void close() {
+        RagMetrics.registry().remove(interactiveQueueGauge);
+        RagMetrics.registry().remove(batchQueueGauge);
+    }
+
+    /**
+     * A generation slot; must be closed when the generation finishes.
+     */
+    public class Permit implements AutoCloseable {
+        private final long admittedNanos = System.nanoTime();
+        private boolean released;
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(System.nanoTime() - admittedNanos);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a request is shed; carries the HTTP status and Retry-After hint.
+     */
+    public static class RejectedException extends Exception {
+        private final int statusCode;
+        private final long retryAfterSeconds;
+
+        public RejectedException(int statusCode, String message, long retryAfterSeconds) {
+            super(message);
+            this.statusCode = statusCode;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public int getStatusCode() { return statusCode; }
+        public long getRetryAfterSeconds() { return retryAfterSeconds; }
+    }
+
+    /**
+     * Tunable admission limits.
+     */
+    public static class Settings {
+        private int maxConcurrency = 2;
+        private int maxQueueDepth = 32;
+        private int maxBatchQueueDepth = 8;
+        private long defaultDeadlineMs = 120000;
+        private long maxDeadlineMs = 600000;
+        private int maxBatchSize = 8;
+        private int maxBatchJobs = 4;
+        private int maxBatchPrompts = 1000;
+
+        public static Settings fromConfig(Properties config) {
+            Settings settings = new Settings();
+            settings.maxConcurrency = Integer.parseInt(config.getProperty("rag.config.inference.maxConcurrency", "2"));
+            settings.maxQueueDepth = Integer.parseInt(config.getProperty("rag.config.inference.maxQueueDepth", "32"));
+            settings.maxBatchQueueDepth = Integer.parseInt(config.getProperty("rag.config.inference.maxBatchQueueDepth", "8"));
+            settings.defaultDeadlineMs = Long.parseLong(config.getProperty("rag.config.inference.defaultDeadlineMs", "120000"));
+            settings.maxDeadlineMs = Long.parseLong(config.getProperty("rag.config.inference.maxDeadlineMs", "600000"));
+            settings.maxBatchSize = Integer.parseInt(config.getProperty("rag.config.inference.maxBatchSize", "8"));
+            settings.maxBatchJobs = Integer.parseInt(config.getProperty("rag.config.inference.maxBatchJobs", "4"));
+            settings.maxBatchPrompts = Integer.parseInt(config.getProperty("rag.config.inference.maxBatchPrompts", "1000"));
+            return settings;
+        }
+    }
+}
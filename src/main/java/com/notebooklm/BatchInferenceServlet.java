@@ -0,0 +1,269 @@
+package com.notebooklm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/**
+ * Batch generation for offline workloads on /api/generate/batch.
+ * POST {"prompts": [...]} starts a job and returns 202 with its job_id; GET ?id= reports
+ * progress and the results completed so far; DELETE ?id= cancels the rest of the job.
+ * Prompts are generated in batched decodes of up to maxBatchSize sequences, admitted at
+ * batch priority so interactive traffic goes first. Each prompt gets the default deadline
+ * from when it starts decoding, not from when its job was queued.
+ */
+public class BatchInferenceServlet extends HttpServlet {
+    private static final Logger log = LoggerFactory.getLogger(BatchInferenceServlet.class);
+    private static final long JOB_RETENTION_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final GraniteModelWrapper modelWrapper;
+    private final AdmissionController admission;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService scheduler = RagExecutors.newTaskExecutor("llm-batch", true, 1);
+    private final Map<String, BatchJob> jobs = new ConcurrentHashMap<>();
+
+    public BatchInferenceServlet(GraniteModelWrapper modelWrapper, AdmissionController admission) {
+        this.modelWrapper = modelWrapper;
+        this.admission = admission;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        List<String> prompts = new ArrayList<>();
+        try {
+            String body = req.getReader().lines().collect(Collectors.joining(System.lineSeparator()));
+            JsonNode requestNode = objectMapper.readTree(body);
+            JsonNode promptsNode = requestNode != null ? requestNode.get("prompts") : null;
+            if (promptsNode == null || !promptsNode.isArray() || promptsNode.isEmpty()) {
+                throw new IllegalArgumentException("prompts must be a non-empty array");
+            }
+            for (JsonNode prompt : promptsNode) {
+                prompts.add(prompt.asText());
+            }
+        } catch (Exception e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid batch request: " + e.getMessage());
+            return;
+        }
+        if (prompts.size() > admission.getMaxBatchPrompts()) {
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                "A batch job may contain at most " + admission.getMaxBatchPrompts() + " prompts");
+            return;
+        }
+
+        evictExpiredJobs();
+        BatchJob job = new BatchJob(UUID.randomUUID().toString(), prompts);
+        boolean accepted;
+        synchronized (jobs) {
+            long unfinished = jobs.values().stream().filter(existing -> existing.finishedMillis == 0).count();
+            accepted = unfinished < admission.getMaxBatchJobs();
+            if (accepted) {
+                jobs.put(job.id, job);
+            }
+        }
+        if (!accepted) {
+            RagMetrics.counter("rag.inference.batch.rejected").increment();
+            resp.setHeader("Retry-After", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(admission.getDefaultDeadlineMs())));
+            resp.sendError(429, "Too many batch jobs in progress");
+            return;
+        }
+        try {
+            scheduler.execute(() -> runJob(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server is shutting down");
+            return;
+        }
+        RagMetrics.counter("rag.inference.batch.prompts").increment(prompts.size());
+
+        ObjectNode responseNode = objectMapper.createObjectNode();
+        responseNode.put("job_id", job.id);
+        responseNode.put("total", prompts.size());
+        resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+        writeJson(resp, responseNode);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String jobId = req.getParameter("id");
+        BatchJob job = jobId != null ? jobs.get(jobId) : null;
+        if (job == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "No batch job with id " + jobId);
+            return;
+        }
+
+        ObjectNode responseNode = objectMapper.createObjectNode();
+        responseNode.put("job_id", job.id);
+        responseNode.put("total", job.prompts.size());
+        int completed = job.completed.get();
+        responseNode.put("completed", completed);
+        responseNode.put("status", completed == job.prompts.size() ? "completed" : "running");
+        ArrayNode results = responseNode.putArray("results");
+        for (int i = 0; i < job.prompts.size(); i++) {
+            String response = job.responses.get(i);
+            String error = job.errors.get(i);
+            if (response == null && error == null) {
+                continue;
+            }
+            ObjectNode result = results.addObject();
+            result.put("index", i);
+            if (response != null) {
+                result.put("response", response);
+            } else {
+                result.put("error", error);
+            }
+        }
+        resp.setStatus(HttpServletResponse.SC_OK);
+        writeJson(resp, responseNode);
+    }
+
+    /**
+     * Cancels a batch job: DELETE /api/generate/batch?id=&lt;job_id&gt;. Prompts that already
+     * finished keep their results.
+     */
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String jobId = req.getParameter("id");
+        BatchJob job = jobId != null ? jobs.get(jobId) : null;
+        if (job == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "No batch job with id " + jobId);
+            return;
+        }
+        job.cancellation.cancel();
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    @Override
+    public void destroy() {
+        jobs.values().forEach(job -> job.cancellation.cancel());
+        scheduler.shutdownNow();
+        super.destroy();
+    }
+
+    /**
+     * Generates the job's prompts in consecutive batched decodes, each holding one
+     * generation slot for the whole batch.
+     */
+    private void runJob(BatchJob job) {
+        int batchSize = admission.getMaxBatchSize();
+        for (int start = 0; start < job.prompts.size(); start += batchSize) {
+            int end = Math.min(start + batchSize, job.prompts.size());
+            List<String> batch = job.prompts.subList(start, end);
+            int offset = start;
+            try {
+                generateWhenAdmitted(job, batch, new GraniteModelWrapper.BatchResultHandler() {
+                    @Override
+                    public void onResult(int index, String response) {
+                        job.complete(offset + index, response, null);
+                    }
+
+                    @Override
+                    public void onError(int index, String error) {
+                        job.complete(offset + index, null, error);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failRemaining(job, "Server is shutting down");
+                return;
+            } catch (CancellationException e) {
+                failRemaining(job, "Batch job cancelled");
+                return;
+            } catch (Exception e) {
+                log.warn("Batch job {} failed for prompts {}-{}", job.id, start, end - 1, e);
+                for (int i = start; i < end; i++) {
+                    job.complete(i, null, e.getMessage());
+                }
+            }
+        }
+        job.finishedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Waits for a batch-priority slot, backing off for the suggested Retry-After
+     * when the queue sheds the request rather than failing the job. The deadline
+     * only bounds the wait in the queue; each sequence gets its own once admitted.
+     */
+    private void generateWhenAdmitted(BatchJob job, List<String> batch,
+                                      GraniteModelWrapper.BatchResultHandler handler) throws Exception {
+        while (true) {
+            job.cancellation.throwIfCancelled();
+            long queueDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(admission.getDefaultDeadlineMs());
+            try (AdmissionController.Permit permit = admission.acquire(AdmissionController.Priority.BATCH, queueDeadlineNanos, job.cancellation)) {
+                modelWrapper.generateBatch(batch, admission.getDefaultDeadlineMs(), job.cancellation, handler);
+                return;
+            } catch (AdmissionController.RejectedException e) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(e.getRetryAfterSeconds()));
+            }
+        }
+    }
+
+    private void failRemaining(BatchJob job, String error) {
+        for (int i = 0; i < job.prompts.size(); i++) {
+            job.complete(i, null, error);
+        }
+        job.finishedMillis = System.currentTimeMillis();
+    }
+
+    private void evictExpiredJobs() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> job.finishedMillis > 0 && now - job.finishedMillis > JOB_RETENTION_MS);
+    }
+
+    private void writeJson(HttpServletResponse resp, ObjectNode node) throws IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.getWriter().write(objectMapper.writeValueAsString(node));
+    }
+
+    private static class BatchJob {
+        private final String id;
+        private final List<String> prompts;
+        private final AtomicReferenceArray<String> responses;
+        private final AtomicReferenceArray<String> errors;
+        private final AtomicInteger completed = new AtomicInteger();
+        private final CancellationToken cancellation = new CancellationToken();
+        private volatile long finishedMillis;
+
+        BatchJob(String id, List<String> prompts) {
+            this.id = id;
+            this.prompts = prompts;
+            this.responses = new AtomicReferenceArray<>(prompts.size());
+            this.errors = new AtomicReferenceArray<>(prompts.size());
+        }
+
+        /**
+         * Records a prompt's outcome; the first outcome wins, so failing the rest of a
+         * job keeps the results that already finished.
+         */
+        void complete(int index, String response, String error) {
+            if (responses.get(index) != null || errors.get(index) != null) {
+                return;
+            }
+            if (response != null) {
+                responses.set(index, response);
+            } else {
+                errors.set(index, error != null ? error : "Generation failed");
+            }
+            completed.incrementAndGet();
+        }
+    }
+}
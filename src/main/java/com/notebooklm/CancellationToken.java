@@ -0,0 +1,79 @@
+package com.notebooklm;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cooperative cancellation signal for a generation.
+ * The decode loop polls it between tokens; callers cancel it explicitly (client
+ * disconnect, window closed) or implicitly by letting its deadline pass.
+ */
+public class CancellationToken {
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final List<Runnable> callbacks = new CopyOnWriteArrayList<>();
+    private final boolean hasDeadline;
+    private final long deadlineNanos;
+
+    public CancellationToken() {
+        this.hasDeadline = false;
+        this.deadlineNanos = 0L;
+    }
+
+    /**
+     * @param deadlineNanos System.nanoTime() after which the token counts as cancelled
+     */
+    public CancellationToken(long deadlineNanos) {
+        this.hasDeadline = true;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static CancellationToken withTimeout(long timeoutMs) {
+        return new CancellationToken(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+    }
+
+    /**
+     * Cancels the token and runs the registered callbacks once.
+     */
+    public void cancel() {
+        if (cancelled.compareAndSet(false, true)) {
+            for (Runnable callback : callbacks) {
+                // Removal decides the race with onCancel, so each callback runs once
+                if (callbacks.remove(callback)) {
+                    callback.run();
+                }
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get() || (hasDeadline && System.nanoTime() - deadlineNanos >= 0);
+    }
+
+    public boolean isDeadlineExceeded() {
+        return !cancelled.get() && hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    public void throwIfCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException(isDeadlineExceeded() ? "Deadline exceeded" : "Cancelled");
+        }
+    }
+
+    /**
+     * Registers a callback run when the token is cancelled explicitly, or immediately
+     * if it already has been.
+     */
+    public void onCancel(Runnable callback) {
+        callbacks.add(callback);
+        if (cancelled.get() && callbacks.remove(callback)) {
+            callback.run();
+        }
+    }
+
+    public void removeCallback(Runnable callback) {
+        callbacks.remove(callback);
+    }
+}
@@ -0,0 +1,88 @@
+package com.notebooklm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An answer together with the retrieved chunks it cites.
+ * The model is asked for {"answer": ..., "citations": [chunk ids]} under a grammar
+ * compiled from SCHEMA, so the output always parses and sources come from the model
+ * rather than from matching the answer text afterwards. Chunk ids are the 1-based
+ * positions of the chunks in the prompt.
+ */
+public class CitedAnswer {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public static final String SCHEMA_JSON = "{"
+        + "\"type\":\"object\","
+        + "\"properties\":{"
+        + "\"answer\":{\"type\":\"string\"},"
+        + "\"citations\":{\"type\":\"array\",\"items\":{\"type\":\"integer\",\"minimum\":1}}"
+        + "},"
+        + "\"required\":[\"answer\",\"citations\"],"
+        + "\"additionalProperties\":false"
+        + "}";
+
+    public static final JsonNode SCHEMA = parseSchema();
+
+    private final String answer;
+    private final List<EnhancedDocumentProcessor.DocumentChunk> citedChunks;
+
+    public CitedAnswer(String answer, List<EnhancedDocumentProcessor.DocumentChunk> citedChunks) {
+        this.answer = answer;
+        this.citedChunks = citedChunks;
+    }
+
+    /**
+     * Builds a prompt that numbers the chunks and asks for an answer citing them by number.
+     */
+    public static String buildPrompt(String question, List<EnhancedDocumentProcessor.DocumentChunk> chunks) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("Based on the following numbered sources:\n\n");
+        for (int i = 0; i < chunks.size(); i++) {
+            EnhancedDocumentProcessor.DocumentChunk chunk = chunks.get(i);
+            prompt.append('[').append(i + 1).append("] From ").append(chunk.getTitle()).append(":\n");
+            prompt.append(chunk.getContent()).append("\n\n");
+        }
+        prompt.append("Question: ").append(question).append("\n\n");
+        prompt.append("Answer in JSON with \"answer\" set to a comprehensive answer based on the sources ");
+        prompt.append("and \"citations\" listing the numbers of the sources the answer uses:");
+        return prompt.toString();
+    }
+
+    /**
+     * Maps the model's output back to the chunks it was given. Unknown and repeated
+     * chunk ids are ignored.
+     */
+    public static CitedAnswer fromResponse(JsonNode response, List<EnhancedDocumentProcessor.DocumentChunk> chunks) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (JsonNode id : response.path("citations")) {
+            int index = id.asInt() - 1;
+            if (index >= 0 && index < chunks.size()) {
+                ids.add(index);
+            }
+        }
+        List<EnhancedDocumentProcessor.DocumentChunk> cited = new ArrayList<>(ids.size());
+        for (int index : ids) {
+            cited.add(chunks.get(index));
+        }
+        return new CitedAnswer(response.path("answer").asText(""), cited);
+    }
+
+    private static JsonNode parseSchema() {
+        try {
+            return objectMapper.readTree(SCHEMA_JSON);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String getAnswer() { return answer; }
+    public List<EnhancedDocumentProcessor.DocumentChunk> getCitedChunks() { return citedChunks; }
+}
@@ -0,0 +1,132 @@
+package com.notebooklm;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Scope;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.function.ToIntFunction;
+
+/**
+ * Fits retrieved chunks into a fixed token budget for the prompt.
+ * Chunks are taken in relevance order; sentences already covered by a better chunk
+ * (e.g. the overlap between neighbouring chunks) are dropped, and a chunk that does not
+ * fit whole is cut at a sentence boundary. The prompt size, and so prefill time, stays
+ * predictable regardless of how long the retrieved chunks are.
+ */
+public class ContextPacker {
+    // Sentences shorter than this are too generic to treat as duplicates
+    private static final int MIN_DEDUP_CHARS = 20;
+
+    private final ToIntFunction<String> tokenCounter;
+    private final int tokenBudget;
+    private final int minChunkTokens;
+
+    /**
+     * @param tokenCounter   counts tokens with the generating model's tokenizer
+     * @param tokenBudget    tokens available for context in the prompt
+     * @param minChunkTokens smallest fragment worth adding once the budget runs low
+     */
+    public ContextPacker(ToIntFunction<String> tokenCounter, int tokenBudget, int minChunkTokens) {
+        this.tokenCounter = tokenCounter;
+        this.tokenBudget = tokenBudget;
+        this.minChunkTokens = minChunkTokens;
+    }
+
+    /**
+     * Creates a packer configured from rag.config.context.* properties.
+     */
+    public static ContextPacker fromConfig(Properties config, ToIntFunction<String> tokenCounter) {
+        return new ContextPacker(tokenCounter,
+            Integer.parseInt(config.getProperty("rag.config.context.tokenBudget", "2500")),
+            Integer.parseInt(config.getProperty("rag.config.context.minChunkTokens", "32")));
+    }
+
+    /**
+     * Packs chunks ordered from most to least relevant into the token budget. Returned
+     * chunks keep their source and index but may carry shortened content.
+     */
+    public List<EnhancedDocumentProcessor.DocumentChunk> pack(List<EnhancedDocumentProcessor.DocumentChunk> rankedChunks) {
+        Span span = RagTracing.tracer().spanBuilder("rag.context_pack")
+            .setAttribute("rag.context.candidates", rankedChunks.size())
+            .setAttribute("rag.context.budget", tokenBudget)
+            .startSpan();
+        try (Scope scope = span.makeCurrent()) {
+            List<EnhancedDocumentProcessor.DocumentChunk> packed = new ArrayList<>();
+            StringBuilder covered = new StringBuilder();
+            int remaining = tokenBudget;
+
+            for (EnhancedDocumentProcessor.DocumentChunk chunk : rankedChunks) {
+                int headerTokens = tokenCounter.applyAsInt("From " + chunk.getTitle() + ":\n");
+                if (remaining - headerTokens < minChunkTokens) {
+                    RagMetrics.counter("rag.context.chunks", "result", "dropped").increment();
+                    continue;
+                }
+
+                StringBuilder text = new StringBuilder();
+                int textTokens = 0;
+                boolean trimmed = false;
+                boolean anyNew = false;
+                for (String sentence : sentences(chunk.getContent())) {
+                    String normalized = normalize(sentence);
+                    if (normalized.length() >= MIN_DEDUP_CHARS && covered.indexOf(normalized) >= 0) {
+                        continue; // Already in the prompt via a more relevant chunk
+                    }
+                    anyNew = true;
+                    int sentenceTokens = tokenCounter.applyAsInt(sentence);
+                    if (headerTokens + textTokens + sentenceTokens > remaining) {
+                        trimmed = true;
+                        break;
+                    }
+                    text.append(sentence);
+                    textTokens += sentenceTokens;
+                }
+
+                if (!anyNew) {
+                    RagMetrics.counter("rag.context.chunks", "result", "deduplicated").increment();
+                    continue;
+                }
+                if (textTokens < minChunkTokens && trimmed) {
+                    RagMetrics.counter("rag.context.chunks", "result", "dropped").increment();
+                    continue;
+                }
+
+                String content = text.toString().strip();
+                packed.add(new EnhancedDocumentProcessor.DocumentChunk(
+                    chunk.getFilePath(), chunk.getFileName(), content, chunk.getChunkIndex()));
+                covered.append(normalize(content)).append('\n');
+                remaining -= headerTokens + textTokens;
+                RagMetrics.counter("rag.context.chunks", "result", trimmed ? "trimmed" : "packed").increment();
+            }
+
+            int used = tokenBudget - remaining;
+            DistributionSummary.builder("rag.context.tokens").register(RagMetrics.registry()).record(used);
+            span.setAttribute("rag.context.chunks", packed.size());
+            span.setAttribute("rag.context.tokens", used);
+            return packed;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Splits text into sentences, keeping trailing whitespace so they concatenate back.
+     */
+    private static List<String> sentences(String text) {
+        List<String> sentences = new ArrayList<>();
+        BreakIterator iterator = BreakIterator.getSentenceInstance(Locale.ROOT);
+        iterator.setText(text);
+        int start = iterator.first();
+        for (int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+            sentences.add(text.substring(start, end));
+        }
+        return sentences;
+    }
+
+    private static String normalize(String text) {
+        return text.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+}
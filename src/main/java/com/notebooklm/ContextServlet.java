@@ -0,0 +1,72 @@
+package com.notebooklm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Precomputes notebook contexts on /api/contexts: POST {"context_id", "context"} prefills
+ * the context once and stores its KV snapshot, so later requests with that context_id only
+ * prefill their question. The prefill is admitted at batch priority.
+ */
+public class ContextServlet extends HttpServlet {
+    private final GraniteModelWrapper modelWrapper;
+    private final AdmissionController admission;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public ContextServlet(GraniteModelWrapper modelWrapper, AdmissionController admission) {
+        this.modelWrapper = modelWrapper;
+        this.admission = admission;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String contextId;
+        String context;
+        try {
+            String body = req.getReader().lines().collect(Collectors.joining(System.lineSeparator()));
+            JsonNode requestNode = objectMapper.readTree(body);
+            if (requestNode == null || !requestNode.hasNonNull("context_id") || !requestNode.hasNonNull("context")) {
+                throw new IllegalArgumentException("context_id and context are required");
+            }
+            contextId = requestNode.get("context_id").asText();
+            context = requestNode.get("context").asText();
+        } catch (Exception e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid context request: " + e.getMessage());
+            return;
+        }
+
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(admission.getDefaultDeadlineMs());
+        CancellationToken cancellation = new CancellationToken(deadlineNanos);
+        boolean stored;
+        try (AdmissionController.Permit permit = admission.acquire(AdmissionController.Priority.BATCH, deadlineNanos, cancellation)) {
+            stored = modelWrapper.precomputeContext(contextId, context, cancellation);
+        } catch (AdmissionController.RejectedException e) {
+            resp.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+            resp.sendError(e.getStatusCode(), e.getMessage());
+            return;
+        } catch (CancellationException e) {
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Context prefill exceeded its deadline");
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server is shutting down");
+            return;
+        }
+
+        ObjectNode responseNode = objectMapper.createObjectNode();
+        responseNode.put("context_id", contextId);
+        responseNode.put("stored", stored);
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.getWriter().write(objectMapper.writeValueAsString(responseNode));
+    }
+}
@@ -4,59 +4,125 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Scope;
 import org.apache.http.HttpHeaders;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.methods.*;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
 /**
  * Complete CouchDB client for managing conversation history and responses.
  * Handles database operations, authentication, and conversation management.
  */
 public class CouchDBClient implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(CouchDBClient.class);
+    private static final int DEFAULT_WRITE_QUEUE_CAPACITY = 10000;
+    private static final int DEFAULT_BULK_BATCH_SIZE = 100;
+    private static final long WRITE_FLUSH_INTERVAL_MS = 500;
+    private static final long SHUTDOWN_FLUSH_TIMEOUT_MS = 10000;
+    private static final long WRITE_RETRY_BACKOFF_MS = 500;
+    private static final long MAX_WRITE_RETRY_BACKOFF_MS = 30000;
+    private static final int SEARCH_BATCH_SIZE = 100;
+    // Must split text the same way as the by_term view's map function
+    private static final Pattern TERM_SEPARATOR = Pattern.compile("[^0-9a-z\\u00c0-\\uffff]+");
+
     private final String couchUrl;
     private final String database;
     private final String username;
     private final String password;
     private final CloseableHttpClient httpClient;
+    private final HttpTransport transport;
+    private final boolean ownsTransport;
+    private final String authorizationHeader;
     private final ObjectMapper objectMapper;
+    private final BlockingQueue<ObjectNode> writeQueue;
+    private final int bulkBatchSize;
+    // A lock rather than a monitor so virtual threads flushing here do not pin their carrier
+    private final ReentrantLock pendingLock = new ReentrantLock();
+    private final Condition drained = pendingLock.newCondition();
+    // Documents queued or being written by the write-behind thread
+    private int unwrittenCount;
+    private final Thread writeBehindThread;
+    private final Gauge writeQueueGauge;
+    private volatile boolean running = true;
+    // Once closing, the write-behind thread stops retrying failed batches after this time
+    private volatile long shutdownDeadlineNanos;
 
     public CouchDBClient(String couchUrl, String database, String username, String password) {
+        this(couchUrl, database, username, password, DEFAULT_WRITE_QUEUE_CAPACITY, DEFAULT_BULK_BATCH_SIZE);
+    }
+
+    public CouchDBClient(String couchUrl, String database, String username, String password,
+                         int writeQueueCapacity, int bulkBatchSize) {
+        this(couchUrl, database, username, password, writeQueueCapacity, bulkBatchSize,
+             new HttpTransport(new HttpTransport.Settings()), true);
+    }
+
+    /**
+     * Creates a client that sends requests over a shared pooled transport.
+     * The transport is not closed when this client is closed.
+     */
+    public CouchDBClient(String couchUrl, String database, String username, String password,
+                         int writeQueueCapacity, int bulkBatchSize, HttpTransport transport) {
+        this(couchUrl, database, username, password, writeQueueCapacity, bulkBatchSize, transport, false);
+    }
+
+    private CouchDBClient(String couchUrl, String database, String username, String password,
+                          int writeQueueCapacity, int bulkBatchSize, HttpTransport transport, boolean ownsTransport) {
         this.couchUrl = couchUrl.endsWith("/") ? couchUrl.substring(0, couchUrl.length() - 1) : couchUrl;
         this.database = database;
         this.username = username;
         this.password = password;
         this.objectMapper = new ObjectMapper();
         
-        // Set up HTTP client with authentication
-        CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-        credentialsProvider.setCredentials(
-            AuthScope.ANY,
-            new UsernamePasswordCredentials(username, password)
-        );
-        
-        this.httpClient = HttpClients.custom()
-            .setDefaultCredentialsProvider(credentialsProvider)
-            .build();
+        // Credentials are sent preemptively per request so the pooled client can be shared
+        this.authorizationHeader = "Basic " + Base64.getEncoder().encodeToString(
+            (username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        this.transport = transport;
+        this.ownsTransport = ownsTransport;
+        this.httpClient = transport.getHttpClient();
         
         try {
             initializeDatabase();
-            System.out.println("✓ CouchDB client initialized successfully");
+            log.info("✓ CouchDB client initialized successfully");
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize CouchDB client", e);
         }
+        
+        // Write-behind queue so conversation turns and answer cache entries are persisted off the caller's thread
+        this.writeQueue = new LinkedBlockingQueue<>(writeQueueCapacity);
+        this.bulkBatchSize = bulkBatchSize;
+        this.writeBehindThread = new Thread(this::runWriteBehind, "couchdb-write-behind");
+        this.writeBehindThread.setDaemon(true);
+        this.writeBehindThread.start();
+        this.writeQueueGauge = RagMetrics.gauge("rag.couchdb.write.queue.depth", writeQueue::size);
     }
 
     /**
@@ -74,6 +140,7 @@ public class CouchDBClient implements AutoCloseable {
      */
     private boolean databaseExists() throws Exception {
         HttpHead request = new HttpHead(couchUrl + "/" + database);
+        request.setHeader(HttpHeaders.AUTHORIZATION, authorizationHeader);
         try (CloseableHttpResponse response = httpClient.execute(request)) {
             return response.getStatusLine().getStatusCode() == 200;
         }
@@ -85,36 +152,73 @@ public class CouchDBClient implements AutoCloseable {
     private void createDatabase() throws Exception {
         HttpPut request = new HttpPut(couchUrl + "/" + database);
         String responseBody = executeRequest(request);
-        System.out.println("✓ Created CouchDB database: " + database);
+        log.info("✓ Created CouchDB database: {}", database);
     }
 
     /**
      * Creates design documents for efficient querying.
+     * Views emit compact keys only; readers fetch full documents with include_docs on demand.
      */
     private void createDesignDocuments() throws Exception {
         // Create design document for conversation queries
-        ObjectNode designDoc = objectMapper.createObjectNode();
-        designDoc.put("_id", "_design/conversations");
-        
         ObjectNode views = objectMapper.createObjectNode();
         ObjectNode byTimestamp = objectMapper.createObjectNode();
-        byTimestamp.put("map", "function(doc) { if(doc.type === 'conversation' && doc.timestamp) { emit(doc.timestamp, doc); } }");
+        byTimestamp.put("map", "function(doc) { if(doc.type === 'conversation' && doc.timestamp) { emit(doc.timestamp, null); } }");
         views.set("by_timestamp", byTimestamp);
         
+        // Composite key keeps each session's history ordered by time
         ObjectNode bySessionId = objectMapper.createObjectNode();
-        bySessionId.put("map", "function(doc) { if(doc.type === 'conversation' && doc.sessionId) { emit(doc.sessionId, doc); } }");
+        bySessionId.put("map", "function(doc) { if(doc.type === 'conversation' && doc.sessionId && doc.timestamp) { emit([doc.sessionId, doc.timestamp], null); } }");
         views.set("by_session_id", bySessionId);
         
+        ensureDesignDocument("_design/conversations", views);
+        
+        // Create design document for semantic answer cache entries
+        ObjectNode cacheViews = objectMapper.createObjectNode();
+        ObjectNode cacheByTimestamp = objectMapper.createObjectNode();
+        cacheByTimestamp.put("map", "function(doc) { if(doc.type === 'answer_cache' && doc.timestamp) { emit(doc.timestamp, null); } }");
+        cacheViews.set("by_timestamp", cacheByTimestamp);
+        
+        ensureDesignDocument("_design/answer_cache", cacheViews);
+        
+        // Each distinct word of a turn keyed with its timestamp, so search reads only matching rows.
+        // A separate design document so changing it does not rebuild the other conversation views.
+        ObjectNode termViews = objectMapper.createObjectNode();
+        ObjectNode byTerm = objectMapper.createObjectNode();
+        byTerm.put("map", "function(doc) { if(doc.type === 'conversation' && doc.timestamp) { "
+            + "var terms = ((doc.question || '') + ' ' + (doc.response || '')).toLowerCase().split(/[^0-9a-z\\u00c0-\\uffff]+/); "
+            + "var seen = {}; for (var i = 0; i < terms.length; i++) { var term = terms[i]; "
+            + "if (term && !seen[term]) { seen[term] = true; emit([term, doc.timestamp], null); } } } }");
+        termViews.set("by_term", byTerm);
+        
+        ensureDesignDocument("_design/conversation_terms", termViews);
+    }
+
+    /**
+     * Creates a design document, or migrates an existing one whose views differ.
+     */
+    private void ensureDesignDocument(String designId, ObjectNode views) throws Exception {
+        ObjectNode designDoc = objectMapper.createObjectNode();
+        designDoc.put("_id", designId);
         designDoc.set("views", views);
         
+        JsonNode existing = null;
         try {
-            storeDocument("_design/conversations", designDoc);
-        } catch (Exception e) {
-            // Design document might already exist, which is fine
-            if (!e.getMessage().contains("409")) {
+            existing = getDocument(designId);
+        } catch (IOException e) {
+            // 404 means the design document has not been created yet
+            if (!e.getMessage().contains("404")) {
                 throw e;
             }
         }
+        
+        if (existing == null) {
+            storeDocument(designId, designDoc);
+        } else if (!views.equals(existing.get("views"))) {
+            designDoc.put("_rev", existing.get("_rev").asText());
+            storeDocument(designId, designDoc);
+            log.info("✓ Migrated CouchDB design document: {}", designId);
+        }
     }
 
     /**
@@ -122,6 +226,77 @@ public class CouchDBClient implements AutoCloseable {
      */
     public String storeConversation(String sessionId, String question, String response, 
                                   List<String> sources, String model) throws Exception {
+        ObjectNode conversationDoc = buildConversationDocument(sessionId, question, response, sources, model);
+        String docId = conversationDoc.get("_id").asText();
+        storeDocument(docId, conversationDoc);
+        return docId;
+    }
+
+    /**
+     * Queues a conversation turn for a batched background write and returns immediately.
+     * Falls back to a synchronous write if the write-behind queue is full.
+     *
+     * @throws IllegalStateException if the client has been closed
+     */
+    public String storeConversationAsync(String sessionId, String question, String response, 
+                                       List<String> sources, String model) throws Exception {
+        if (!running) {
+            throw new IllegalStateException("CouchDB client is closed");
+        }
+        ObjectNode conversationDoc = buildConversationDocument(sessionId, question, response, sources, model);
+        String docId = conversationDoc.get("_id").asText();
+        enqueue(docId, conversationDoc);
+        return docId;
+    }
+
+    /**
+     * Queues a document on the write-behind queue, or writes it synchronously if the queue is full.
+     */
+    private void enqueue(String docId, ObjectNode document) throws Exception {
+        Span span = RagTracing.tracer().spanBuilder("couchdb.store").startSpan();
+        try (Scope scope = span.makeCurrent()) {
+            addUnwritten(1);
+            boolean queued = writeQueue.offer(document);
+            // close() may have started after the caller's check; take the document back unless
+            // the write-behind thread already has it
+            if (queued && !running && writeQueue.remove(document)) {
+                queued = false;
+            }
+            if (!queued) {
+                addUnwritten(-1);
+            }
+            span.setAttribute("couchdb.write_behind", queued);
+            if (!queued) {
+                storeDocument(docId, document);
+            }
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Stores a question and the generated response along with the chunks used as sources.
+     */
+    public String storeResponse(String sessionId, String question, String response, 
+                              List<EnhancedDocumentProcessor.DocumentChunk> chunks) throws Exception {
+        List<String> sources = new ArrayList<>();
+        if (chunks != null) {
+            for (EnhancedDocumentProcessor.DocumentChunk chunk : chunks) {
+                sources.add(chunk.getTitle());
+            }
+        }
+        return storeConversationAsync(sessionId, question, response, sources, "granite");
+    }
+
+    /**
+     * Stores a question and the generated response in the default session.
+     */
+    public String storeResponse(String question, String response) throws Exception {
+        return storeConversationAsync("default", question, response, null, "granite");
+    }
+
+    private ObjectNode buildConversationDocument(String sessionId, String question, String response, 
+                                                 List<String> sources, String model) {
         ObjectNode conversationDoc = objectMapper.createObjectNode();
         conversationDoc.put("_id", UUID.randomUUID().toString());
         conversationDoc.put("type", "conversation");
@@ -138,18 +313,18 @@ public class CouchDBClient implements AutoCloseable {
             }
         }
         conversationDoc.set("sources", sourcesArray);
-        
-        String docId = conversationDoc.get("_id").asText();
-        storeDocument(docId, conversationDoc);
-        return docId;
+        return conversationDoc;
     }
 
     /**
      * Retrieves conversation history for a session, ordered by timestamp.
      */
     public List<ConversationTurn> getConversationHistory(String sessionId, int limit) throws Exception {
-        String viewUrl = String.format("%s/%s/_design/conversations/_view/by_session_id?key=\"%s\"&limit=%d&descending=true", 
-            couchUrl, database, sessionId, limit);
+        // Descending order swaps the range: start at the session's newest entry
+        String startKey = objectMapper.writeValueAsString(List.of(sessionId, Map.of()));
+        String endKey = objectMapper.writeValueAsString(List.of(sessionId));
+        String viewUrl = String.format("%s/%s/_design/conversations/_view/by_session_id?startkey=%s&endkey=%s&limit=%d&descending=true&include_docs=true", 
+            couchUrl, database, encode(startKey), encode(endKey), limit);
         
         HttpGet request = new HttpGet(viewUrl);
         String responseBody = executeRequest(request);
@@ -159,7 +334,7 @@ public class CouchDBClient implements AutoCloseable {
         
         List<ConversationTurn> history = new ArrayList<>();
         for (JsonNode row : rows) {
-            JsonNode doc = row.get("value");
+            JsonNode doc = row.get("doc");
             ConversationTurn turn = new ConversationTurn(
                 doc.get("question").asText(),
                 doc.get("response").asText(),
@@ -176,7 +351,7 @@ public class CouchDBClient implements AutoCloseable {
      * Retrieves recent conversations across all sessions.
      */
     public List<ConversationTurn> getRecentConversations(int limit) throws Exception {
-        String viewUrl = String.format("%s/%s/_design/conversations/_view/by_timestamp?limit=%d&descending=true", 
+        String viewUrl = String.format("%s/%s/_design/conversations/_view/by_timestamp?limit=%d&descending=true&include_docs=true", 
             couchUrl, database, limit);
         
         HttpGet request = new HttpGet(viewUrl);
@@ -187,7 +362,7 @@ public class CouchDBClient implements AutoCloseable {
         
         List<ConversationTurn> conversations = new ArrayList<>();
         for (JsonNode row : rows) {
-            JsonNode doc = row.get("value");
+            JsonNode doc = row.get("doc");
             ConversationTurn turn = new ConversationTurn(
                 doc.get("question").asText(),
                 doc.get("response").asText(),
@@ -204,7 +379,139 @@ public class CouchDBClient implements AutoCloseable {
      * Searches conversations by keyword.
      */
     public List<ConversationTurn> searchConversations(String keyword, int limit) throws Exception {
-        String viewUrl = String.format("%s/%s/_design/conversations/_view/by_timestamp?limit=%d", 
+        return searchConversations(keyword, limit, null).getTurns();
+    }
+
+    /**
+     * Searches conversations for turns containing every word of the keyword, newest first.
+     * Words are matched whole and case-insensitively over question and response through the
+     * by_term view, so a page costs the rows read for its longest word rather than a scan of
+     * all conversations. Pass the bookmark of the previous page to fetch the next one.
+     */
+    public ConversationSearchPage searchConversations(String keyword, int pageSize, String bookmark) throws Exception {
+        Set<String> required = terms(keyword);
+        List<ConversationTurn> matches = new ArrayList<>();
+        if (required.isEmpty()) {
+            return new ConversationSearchPage(matches, null);
+        }
+        // Read the rows of the longest, usually rarest, word and check the others per turn
+        String driver = required.stream().max(Comparator.comparingInt(String::length)).get();
+        int batchSize = required.size() == 1 ? pageSize : Math.max(pageSize, SEARCH_BATCH_SIZE);
+        
+        JsonNode startKey;
+        String startDocId = null;
+        if (bookmark != null) {
+            JsonNode position = objectMapper.readTree(Base64.getUrlDecoder().decode(bookmark));
+            startKey = position.get("key");
+            startDocId = position.get("id").asText();
+        } else {
+            startKey = objectMapper.valueToTree(List.of(driver, Map.of()));
+        }
+        String endKey = objectMapper.writeValueAsString(List.of(driver));
+        
+        while (true) {
+            // Descending order swaps the range; skip=1 steps past the row the last page ended on
+            String viewUrl = String.format("%s/%s/_design/conversation_terms/_view/by_term?startkey=%s&endkey=%s&limit=%d&descending=true&include_docs=true",
+                couchUrl, database, encode(objectMapper.writeValueAsString(startKey)), encode(endKey), batchSize);
+            if (startDocId != null) {
+                viewUrl += "&startkey_docid=" + encode(startDocId) + "&skip=1";
+            }
+            
+            JsonNode rows = objectMapper.readTree(executeRequest(new HttpGet(viewUrl))).get("rows");
+            for (JsonNode row : rows) {
+                startKey = row.get("key");
+                startDocId = row.get("id").asText();
+                JsonNode doc = row.get("doc");
+                String question = doc.path("question").asText();
+                String response = doc.path("response").asText();
+                if (required.size() > 1 && !terms(question + " " + response).containsAll(required)) {
+                    continue;
+                }
+                matches.add(new ConversationTurn(question, response, doc.get("timestamp").asText(),
+                    parseSourcesList(doc.get("sources"))));
+                if (matches.size() == pageSize) {
+                    ObjectNode position = objectMapper.createObjectNode();
+                    position.set("key", startKey);
+                    position.put("id", startDocId);
+                    return new ConversationSearchPage(matches, Base64.getUrlEncoder().withoutPadding()
+                        .encodeToString(objectMapper.writeValueAsBytes(position)));
+                }
+            }
+            if (rows.size() < batchSize) {
+                return new ConversationSearchPage(matches, null);
+            }
+        }
+    }
+
+    /**
+     * Splits text into the lowercase words the by_term view indexes.
+     */
+    static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String term : TERM_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Stores a semantic answer cache entry (question embedding + source ids + answer).
+     */
+    public String storeCachedAnswer(String question, List<Float> embedding, 
+                                    List<String> sourceIds, String answer) throws Exception {
+        ObjectNode cacheDoc = buildCachedAnswerDocument(question, embedding, sourceIds, answer);
+        String docId = cacheDoc.get("_id").asText();
+        storeDocument(docId, cacheDoc);
+        return docId;
+    }
+
+    /**
+     * Queues a semantic answer cache entry for a batched background write and returns its id.
+     * Falls back to a synchronous write if the write-behind queue is full.
+     *
+     * @throws IllegalStateException if the client has been closed
+     */
+    public String storeCachedAnswerAsync(String question, List<Float> embedding, 
+                                         List<String> sourceIds, String answer) throws Exception {
+        if (!running) {
+            throw new IllegalStateException("CouchDB client is closed");
+        }
+        ObjectNode cacheDoc = buildCachedAnswerDocument(question, embedding, sourceIds, answer);
+        String docId = cacheDoc.get("_id").asText();
+        enqueue(docId, cacheDoc);
+        return docId;
+    }
+
+    private ObjectNode buildCachedAnswerDocument(String question, List<Float> embedding, 
+                                                 List<String> sourceIds, String answer) {
+        ObjectNode cacheDoc = objectMapper.createObjectNode();
+        cacheDoc.put("_id", UUID.randomUUID().toString());
+        cacheDoc.put("type", "answer_cache");
+        cacheDoc.put("question", question);
+        cacheDoc.put("answer", answer);
+        cacheDoc.put("timestamp", Instant.now().toString());
+        
+        ArrayNode embeddingArray = objectMapper.createArrayNode();
+        for (Float value : embedding) {
+            embeddingArray.add(value != null ? value : 0.0f);
+        }
+        cacheDoc.set("embedding", embeddingArray);
+        
+        ArrayNode sourcesArray = objectMapper.createArrayNode();
+        for (String sourceId : sourceIds) {
+            sourcesArray.add(sourceId);
+        }
+        cacheDoc.set("sourceIds", sourcesArray);
+        return cacheDoc;
+    }
+
+    /**
+     * Retrieves the most recent semantic answer cache entries.
+     */
+    public List<CachedAnswer> getCachedAnswers(int limit) throws Exception {
+        String viewUrl = String.format("%s/%s/_design/answer_cache/_view/by_timestamp?limit=%d&descending=true&include_docs=true", 
             couchUrl, database, limit);
         
         HttpGet request = new HttpGet(viewUrl);
@@ -213,26 +520,23 @@ public class CouchDBClient implements AutoCloseable {
         JsonNode response = objectMapper.readTree(responseBody);
         ArrayNode rows = (ArrayNode) response.get("rows");
         
-        List<ConversationTurn> matches = new ArrayList<>();
-        String lowerKeyword = keyword.toLowerCase();
-        
+        List<CachedAnswer> entries = new ArrayList<>();
         for (JsonNode row : rows) {
-            JsonNode doc = row.get("value");
-            String question = doc.get("question").asText().toLowerCase();
-            String responseText = doc.get("response").asText().toLowerCase();
-            
-            if (question.contains(lowerKeyword) || responseText.contains(lowerKeyword)) {
-                ConversationTurn turn = new ConversationTurn(
-                    doc.get("question").asText(),
-                    doc.get("response").asText(),
-                    doc.get("timestamp").asText(),
-                    parseSourcesList(doc.get("sources"))
-                );
-                matches.add(turn);
+            JsonNode doc = row.get("doc");
+            List<Float> embedding = new ArrayList<>();
+            for (JsonNode value : doc.get("embedding")) {
+                embedding.add(value.floatValue());
             }
+            entries.add(new CachedAnswer(
+                doc.get("_id").asText(),
+                doc.get("question").asText(),
+                embedding,
+                parseSourcesList(doc.get("sourceIds")),
+                doc.get("answer").asText()
+            ));
         }
         
-        return matches;
+        return entries;
     }
 
     /**
@@ -246,6 +550,143 @@ public class CouchDBClient implements AutoCloseable {
         executeRequest(request);
     }
 
+    /**
+     * Stores many documents in a single _bulk_docs request.
+     */
+    private void storeDocuments(List<ObjectNode> documents) throws Exception {
+        ObjectNode bulkRequest = objectMapper.createObjectNode();
+        ArrayNode docs = bulkRequest.putArray("docs");
+        docs.addAll(documents);
+        
+        HttpPost request = new HttpPost(couchUrl + "/" + database + "/_bulk_docs");
+        request.setHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+        request.setEntity(new StringEntity(objectMapper.writeValueAsString(bulkRequest), "UTF-8"));
+        
+        String responseBody = executeRequest(request);
+        for (JsonNode result : objectMapper.readTree(responseBody)) {
+            if (result.has("error")) {
+                log.warn("CouchDB bulk write failed for {}: {} - {}", result.path("id").asText(),
+                         result.get("error").asText(), result.path("reason").asText());
+            }
+        }
+    }
+
+    /**
+     * Background loop draining the write-behind queue into _bulk_docs batches.
+     */
+    private void runWriteBehind() {
+        while (running || !writeQueue.isEmpty()) {
+            try {
+                ObjectNode first = writeQueue.poll(WRITE_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<ObjectNode> batch = new ArrayList<>(bulkBatchSize);
+                batch.add(first);
+                writeQueue.drainTo(batch, bulkBatchSize - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                // Interrupted by close(); loop exits once the queue has drained
+            }
+        }
+    }
+
+    /**
+     * Writes a batch, retrying with exponential backoff so a transient CouchDB outage does
+     * not lose conversation turns. New turns meanwhile fill the queue and then fall back to
+     * synchronous writes, which surface the outage to callers. Once closing, retries stop
+     * at the shutdown deadline.
+     */
+    private void writeBatch(List<ObjectNode> batch) {
+        long backoffMs = WRITE_RETRY_BACKOFF_MS;
+        try {
+            while (true) {
+                try {
+                    storeDocuments(batch);
+                    return;
+                } catch (Exception e) {
+                    if (!running && System.nanoTime() - shutdownDeadlineNanos >= 0) {
+                        RagMetrics.counter("rag.couchdb.write.dropped").increment(batch.size());
+                        log.error("Dropping {} queued documents that could not be written to CouchDB before shutdown",
+                                  batch.size(), e);
+                        return;
+                    }
+                    RagMetrics.counter("rag.couchdb.write.retries").increment();
+                    log.warn("Failed to write {} queued documents to CouchDB, retrying in {} ms: {}",
+                             batch.size(), backoffMs, e.getMessage());
+                }
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException e) {
+                    // Interrupted by close(); keep retrying until the shutdown deadline
+                }
+                backoffMs = Math.min(backoffMs * 2, MAX_WRITE_RETRY_BACKOFF_MS);
+            }
+        } finally {
+            addUnwritten(-batch.size());
+        }
+    }
+
+    private void addUnwritten(int delta) {
+        pendingLock.lock();
+        try {
+            unwrittenCount += delta;
+            if (unwrittenCount == 0) {
+                drained.signalAll();
+            }
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every queued document has been written, or the timeout passes.
+     *
+     * @return false if documents were still unwritten when the timeout passed
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long remainingNanos = unit.toNanos(timeout);
+        pendingLock.lock();
+        try {
+            while (unwrittenCount > 0) {
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                remainingNanos = drained.awaitNanos(remainingNanos);
+            }
+            return true;
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every queued document has been written, waiting at most as long as
+     * close() does.
+     *
+     * @return false if documents were still unwritten when the wait ended
+     */
+    public boolean flush() {
+        try {
+            return flush(SHUTDOWN_FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of documents queued or being written by the write-behind thread.
+     */
+    public int getPendingWriteCount() {
+        pendingLock.lock();
+        try {
+            return unwrittenCount;
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
     /**
      * Retrieves a document by ID.
      */
@@ -287,7 +728,15 @@ public class CouchDBClient implements AutoCloseable {
      * Executes an HTTP request and returns the response body.
      */
     private String executeRequest(HttpUriRequest request) throws Exception {
-        try (CloseableHttpResponse response = httpClient.execute(request)) {
+        request.setHeader(HttpHeaders.AUTHORIZATION, authorizationHeader);
+        Timer.Sample sample = Timer.start(RagMetrics.registry());
+        Span span = RagTracing.tracer().spanBuilder("couchdb.request")
+            .setSpanKind(SpanKind.CLIENT)
+            .setAttribute("http.method", request.getMethod())
+            .setAttribute("couchdb.path", request.getURI().getPath())
+            .startSpan();
+        try (Scope scope = span.makeCurrent();
+             CloseableHttpResponse response = httpClient.execute(request)) {
             String responseBody = EntityUtils.toString(response.getEntity());
             int statusCode = response.getStatusLine().getStatusCode();
             
@@ -296,9 +745,22 @@ public class CouchDBClient implements AutoCloseable {
             }
             
             return responseBody;
+        } catch (Exception e) {
+            RagTracing.recordError(span, e);
+            throw e;
+        } finally {
+            span.end();
+            sample.stop(RagMetrics.timer("rag.couchdb.request", "method", request.getMethod()));
         }
     }
 
+    /**
+     * URL-encodes a query parameter value.
+     */
+    private String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
     /**
      * Parses a JSON array of sources into a List of strings.
      */
@@ -314,10 +776,24 @@ public class CouchDBClient implements AutoCloseable {
 
     @Override
     public void close() throws IOException {
-        if (httpClient != null) {
-            httpClient.close();
+        // Flush pending conversation turns before releasing the connection
+        shutdownDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_FLUSH_TIMEOUT_MS);
+        running = false;
+        writeBehindThread.interrupt();
+        try {
+            writeBehindThread.join(SHUTDOWN_FLUSH_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writeBehindThread.isAlive()) {
+            log.error("Closing CouchDB client with {} conversation documents unwritten", getPendingWriteCount());
         }
-        System.out.println("✓ CouchDB client closed");
+        RagMetrics.registry().remove(writeQueueGauge);
+        
+        if (ownsTransport) {
+            transport.close();
+        }
+        log.info("✓ CouchDB client closed");
     }
 
     /**
@@ -342,6 +818,50 @@ public class CouchDBClient implements AutoCloseable {
         public List<String> getSources() { return sources; }
     }
 
+    /**
+     * Represents one page of conversation search results.
+     */
+    public static class ConversationSearchPage {
+        private final List<ConversationTurn> turns;
+        private final String bookmark;
+
+        public ConversationSearchPage(List<ConversationTurn> turns, String bookmark) {
+            this.turns = turns;
+            this.bookmark = bookmark;
+        }
+
+        public List<ConversationTurn> getTurns() { return turns; }
+        /** Bookmark for the next page, or null if this is the last page. */
+        public String getBookmark() { return bookmark; }
+        public boolean hasMore() { return bookmark != null; }
+    }
+
+    /**
+     * Represents a persisted semantic answer cache entry.
+     */
+    public static class CachedAnswer {
+        private final String id;
+        private final String question;
+        private final List<Float> embedding;
+        private final List<String> sourceIds;
+        private final String answer;
+
+        public CachedAnswer(String id, String question, List<Float> embedding, 
+                            List<String> sourceIds, String answer) {
+            this.id = id;
+            this.question = question;
+            this.embedding = embedding;
+            this.sourceIds = sourceIds != null ? sourceIds : new ArrayList<>();
+            this.answer = answer;
+        }
+
+        public String getId() { return id; }
+        public String getQuestion() { return question; }
+        public List<Float> getEmbedding() { return embedding; }
+        public List<String> getSourceIds() { return sourceIds; }
+        public String getAnswer() { return answer; }
+    }
+
     /**
      * Represents database information.
      */
@@ -1,6 +1,8 @@
 package com.notebooklm;
 
 import com.notebooklm.util.TesseractNativeExtractor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
 import net.sourceforge.tess4j.Tesseract;
 import net.sourceforge.tess4j.TesseractException;
 import org.apache.tika.config.TikaConfig;
@@ -8,6 +10,8 @@ import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.sax.BodyContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.file.Files;
@@ -15,10 +19,21 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class EnhancedDocumentProcessor {
+    private static final Logger log = LoggerFactory.getLogger(EnhancedDocumentProcessor.class);
+    private static final Timer OCR_PAGE_TIMER = RagMetrics.timer("rag.ocr.page");
+    private static final Timer OCR_WAIT_TIMER = RagMetrics.timer("rag.ocr.wait");
+    private static final Timer PARSE_TIMER = RagMetrics.timer("rag.document.parse");
+    private static final Counter CHUNK_COUNTER = RagMetrics.counter("rag.document.chunks");
+
     private final TikaConfig tikaConfig;
     private final Tesseract tesseract;
+    // Tesseract instances are not thread-safe; a lock (not synchronized) keeps
+    // virtual threads from pinning their carrier while waiting for OCR
+    private final ReentrantLock ocrLock = new ReentrantLock();
     
     public EnhancedDocumentProcessor() {
         try {
@@ -34,7 +49,7 @@ public class EnhancedDocumentProcessor {
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize document processor", e);
         }
-        System.out.println("✓ Enhanced Document Processor with embedded Tesseract ready.");
+        log.info("✓ Enhanced Document Processor with embedded Tesseract ready.");
     }
     
     private Tesseract initializeTesseract() {
@@ -72,12 +87,23 @@ public class EnhancedDocumentProcessor {
     }
     
     private List<DocumentChunk> processImageWithOCR(File file) throws Exception {
-        System.out.println("Processing image with OCR: " + file.getName());
+        log.debug("Processing image with OCR: {}", file.getName());
         
         try {
-            String content = tesseract.doOCR(file);
+            String content;
+            long waitStart = System.nanoTime();
+            ocrLock.lock();
+            try {
+                // Time waiting for other pages separately so rag.ocr.page stays OCR time alone
+                long start = System.nanoTime();
+                OCR_WAIT_TIMER.record(start - waitStart, TimeUnit.NANOSECONDS);
+                content = tesseract.doOCR(file);
+                OCR_PAGE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } finally {
+                ocrLock.unlock();
+            }
             if (content == null || content.trim().isEmpty()) {
-                System.out.println("No text found in image: " + file.getName());
+                log.warn("No text found in image: {}", file.getName());
                 content = "No text extracted from image";
             }
             
@@ -92,7 +118,7 @@ public class EnhancedDocumentProcessor {
             return chunkDocument(document);
             
         } catch (TesseractException e) {
-            System.err.println("OCR failed for " + file.getName() + ": " + e.getMessage());
+            log.error("OCR failed for {}", file.getName(), e);
             throw new Exception("OCR processing failed", e);
         }
     }
@@ -107,7 +133,9 @@ public class EnhancedDocumentProcessor {
         ParseContext context = new ParseContext();
         
         try (InputStream stream = new FileInputStream(file)) {
+            long start = System.nanoTime();
             parser.parse(stream, handler, metadata, context);
+            PARSE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             // The handler now contains text extracted by Tika, including OCR from Tesseract
             String content = handler.toString();
             
@@ -130,12 +158,12 @@ public class EnhancedDocumentProcessor {
         return result;
     }
     
-    private List<DocumentChunk> chunkDocument(ProcessedDocument document) {
+    static List<DocumentChunk> chunkDocument(ProcessedDocument document) {
         List<DocumentChunk> chunks = new ArrayList<>();
         String content = document.getContent();
         
         if (content == null || content.trim().isEmpty()) {
-            System.out.println("Warning: Empty content for document: " + document.getFileName());
+            log.warn("Empty content for document: {}", document.getFileName());
             return chunks;
         }
         
@@ -165,7 +193,8 @@ public class EnhancedDocumentProcessor {
             ));
         }
         
-        System.out.println("Created " + chunks.size() + " chunks for: " + document.getFileName());
+        CHUNK_COUNTER.increment(chunks.size());
+        log.debug("Created {} chunks for: {}", chunks.size(), document.getFileName());
         return chunks;
     }
     
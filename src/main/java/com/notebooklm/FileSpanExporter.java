@@ -0,0 +1,81 @@
+package com.notebooklm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/**
+ * Span exporter writing one flat JSON object per span, one per line, to a local file for
+ * inspection with jq or a log viewer. Field names borrow from OTLP, but the records are not
+ * OTLP JSON: there is no resource or scope nesting, kinds and status codes are enum names
+ * and attribute values are strings, so a collector cannot ingest the file as is.
+ */
+public class FileSpanExporter implements SpanExporter {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BufferedWriter writer;
+
+    public FileSpanExporter(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public synchronized CompletableResultCode export(Collection<SpanData> spans) {
+        try {
+            for (SpanData span : spans) {
+                ObjectNode node = objectMapper.createObjectNode();
+                node.put("traceId", span.getTraceId());
+                node.put("spanId", span.getSpanId());
+                if (span.getParentSpanContext().isValid()) {
+                    node.put("parentSpanId", span.getParentSpanId());
+                }
+                node.put("name", span.getName());
+                node.put("kind", span.getKind().name());
+                node.put("startTimeUnixNano", span.getStartEpochNanos());
+                node.put("endTimeUnixNano", span.getEndEpochNanos());
+                node.put("durationMs", (span.getEndEpochNanos() - span.getStartEpochNanos()) / 1e6);
+                ObjectNode attributes = node.putObject("attributes");
+                span.getAttributes().forEach((key, value) -> attributes.put(key.getKey(), String.valueOf(value)));
+                node.putObject("status")
+                    .put("code", span.getStatus().getStatusCode().name())
+                    .put("message", span.getStatus().getDescription());
+                writer.write(objectMapper.writeValueAsString(node));
+                writer.newLine();
+            }
+            writer.flush();
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    @Override
+    public synchronized CompletableResultCode flush() {
+        try {
+            writer.flush();
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    @Override
+    public synchronized CompletableResultCode shutdown() {
+        try {
+            writer.close();
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            return CompletableResultCode.ofFailure();
+        }
+    }
+}
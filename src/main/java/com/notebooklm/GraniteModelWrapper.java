@@ -1,7 +1,33 @@
 package com.notebooklm;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Scope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A placeholder wrapper for a native GGUF model runner (like llama.cpp).
@@ -12,38 +38,905 @@ import java.util.List;
  * the C++ functions of the underlying model library.
  */
 public class GraniteModelWrapper implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(GraniteModelWrapper.class);
+    private static final Timer EMBEDDING_TIMER = RagMetrics.timer("rag.embedding");
+    private static final long PREFETCH_CHUNK_BYTES = 1L << 30; // A single mapping is limited to 2 GB
+    private static final int END_OF_GENERATION = -1; // Placeholder for the vocabulary's end-of-generation token
+    // Granite 8B attention shape, used to size the KV cache until it can be read from the model
+    private static final int PLACEHOLDER_LAYERS = 40;
+    private static final int PLACEHOLDER_KV_HEADS = 8;
+    private static final int PLACEHOLDER_HEAD_DIM = 128;
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /**
+     * How tokens are produced. Speculative modes verify every drafted token against the
+     * model, so they change speed but not output.
+     */
+    public enum DecodingMode {
+        STANDARD, PROMPT_LOOKUP, DRAFT_MODEL;
+
+        /**
+         * Parses a mode name such as "prompt_lookup", falling back to the default.
+         */
+        public static DecodingMode parse(String value, DecodingMode defaultMode) {
+            if (value == null || value.isBlank()) {
+                return defaultMode;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return defaultMode;
+            }
+        }
+    }
+
     private final long modelHandle; // Represents a pointer to the model in native memory
+    private final String name; // Model file name, tags this instance's metrics
+    private final List<Meter> meters = new ArrayList<>();
+    private final long modelFileBytes;
+    private final long draftModelHandle; // Optional draft model for speculative decoding, 0 if none
+    private final ModelSettings settings;
+    private final DecodingSettings decoding;
+    private volatile KvSnapshotStore snapshots;
+    // Compiled grammars by schema hash, least recently used first
+    private final Map<String, Grammar> grammars;
+    private final LoraAdapters adapters;
 
     public GraniteModelWrapper(String modelPath) {
-        System.out.println("Loading Granite model from: " + modelPath);
-        // NATIVE JNI CALL: load a GGUF model and return a handle/pointer
-        // this.modelHandle = NativeLibrary.loadModel(modelPath);
+        this(modelPath, new ModelSettings(), new DecodingSettings());
+    }
+
+    public GraniteModelWrapper(String modelPath, DecodingSettings decoding) {
+        this(modelPath, new ModelSettings(), decoding);
+    }
+
+    public GraniteModelWrapper(String modelPath, ModelSettings settings, DecodingSettings decoding) {
+        this.settings = settings;
+        this.decoding = decoding;
+        this.grammars = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Grammar> eldest) {
+                if (size() <= settings.grammarCacheSize) {
+                    return false;
+                }
+                retire(eldest.getValue());
+                return true;
+            }
+        };
+        if (settings.prefetch && modelPath != null) {
+            prefetch(Paths.get(modelPath));
+        }
+        this.modelFileBytes = fileSize(modelPath);
+        this.name = modelPath != null ? Paths.get(modelPath).getFileName().toString() : "unknown";
+        log.info("Loading Granite model from: {}", modelPath);
+        // NATIVE JNI CALL: load a GGUF model and return a handle/pointer; use_mmap maps the weights
+        // lazily and use_mlock pins them in RAM so they are never paged out under memory pressure
+        // this.modelHandle = NativeLibrary.loadModel(modelPath, settings.useMmap, settings.mlock);
         this.modelHandle = 1L; // Placeholder
         if (modelHandle == 0) {
             throw new RuntimeException("Failed to load GGUF model at " + modelPath);
         }
-        System.out.println("✓ Granite model loaded successfully.");
+        log.info("✓ Granite model loaded successfully.");
+        this.adapters = new LoraAdapters(modelHandle, settings.loraDir);
+
+        if (settings.kvCacheTypeV != KvCacheType.F16 && !settings.flashAttention) {
+            // llama.cpp can only quantize the V cache with flash attention enabled
+            log.info("Enabling flash attention for the {} V cache", settings.kvCacheTypeV);
+            settings.flashAttention = true;
+        }
+        // NATIVE JNI CALL: create the inference context with the configured sizes and KV cache precision
+        // (llama_context_params n_ctx, n_batch, n_ubatch, n_seq_max, n_threads, n_threads_batch,
+        // type_k, type_v, flash_attn)
+        // NativeLibrary.createContext(modelHandle, settings.contextSize, settings.batchSize, settings.ubatchSize,
+        //     settings.parallelSequences, settings.threads, settings.batchThreads,
+        //     settings.kvCacheTypeK.ggmlType, settings.kvCacheTypeV.ggmlType, settings.flashAttention);
+        log.info("Context: n_ctx={} n_batch={} n_ubatch={} n_seq_max={} threads={}/{} kv={}/{} (~{} MB)",
+            settings.contextSize, settings.batchSize, settings.ubatchSize, settings.parallelSequences,
+            settings.threads, settings.batchThreads, settings.kvCacheTypeK, settings.kvCacheTypeV,
+            estimateKvCacheBytes() >> 20);
+        meters.add(RagMetrics.gauge("rag.llm.memory.bytes", () -> getMemoryUsage().getModelBytes(), "component", "model", "model", name));
+        meters.add(RagMetrics.gauge("rag.llm.memory.bytes", () -> getMemoryUsage().getKvCacheBytes(), "component", "kv_cache", "model", name));
+        meters.add(RagMetrics.gauge("rag.llm.memory.bytes", () -> getMemoryUsage().getComputeBufferBytes(), "component", "compute", "model", name));
+        meters.add(RagMetrics.gauge("rag.llm.lora.loaded", adapters::getLoadedCount, "model", name));
+
+        if (decoding.draftModelPath != null && !decoding.draftModelPath.isBlank()) {
+            log.info("Loading draft model from: {}", decoding.draftModelPath);
+            // NATIVE JNI CALL: load the draft GGUF with its own small context and check that its
+            // vocabulary matches the main model's (common_speculative_are_compatible)
+            // this.draftModelHandle = NativeLibrary.loadDraftModel(modelHandle, decoding.draftModelPath);
+            this.draftModelHandle = 2L; // Placeholder
+        } else {
+            this.draftModelHandle = 0L;
+        }
+        if (decoding.mode == DecodingMode.DRAFT_MODEL && draftModelHandle == 0L) {
+            log.warn("Draft-model decoding requested but no draft model is configured; using standard decoding");
+            decoding.mode = DecodingMode.STANDARD;
+        }
+    }
+
+    /**
+     * Reports the native memory held by the model: weights, KV cache and compute buffers.
+     */
+    public MemoryUsage getMemoryUsage() {
+        // NATIVE JNI CALL: read the backend buffer sizes (llama_model_size, the KV cache buffer
+        // and the scheduler's compute buffers)
+        // long[] bytes = NativeLibrary.memoryUsage(modelHandle); // {model, kvCache, compute}
+        long[] bytes = {modelFileBytes, estimateKvCacheBytes(), 0L}; // Placeholder: file size and KV estimate
+        return new MemoryUsage(bytes[0], bytes[1], bytes[2]);
+    }
+
+    /**
+     * K and V for every layer and context cell at the configured cache precision.
+     */
+    private long estimateKvCacheBytes() {
+        long elementsPerCell = (long) PLACEHOLDER_LAYERS * PLACEHOLDER_KV_HEADS * PLACEHOLDER_HEAD_DIM;
+        double bytesPerCell = elementsPerCell * (settings.kvCacheTypeK.bytesPerElement + settings.kvCacheTypeV.bytesPerElement);
+        return (long) (bytesPerCell * settings.contextSize);
+    }
+
+    private static long fileSize(String path) {
+        try {
+            return path != null ? Files.size(Paths.get(path)) : 0L;
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Reads the model file through the page cache so the first generation does not
+     * fault the weights in from disk one page at a time.
+     */
+    private static void prefetch(Path modelFile) {
+        if (!Files.isRegularFile(modelFile)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(modelFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long offset = 0; offset < size; offset += PREFETCH_CHUNK_BYTES) {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(PREFETCH_CHUNK_BYTES, size - offset));
+                chunk.load();
+            }
+            log.info("Prefetched {} MB of model weights in {} ms", size >> 20, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException e) {
+            log.warn("Failed to prefetch model file {}", modelFile, e);
+        }
+    }
+
+    /**
+     * Runs a short generation and an embedding so lazily initialized native state
+     * (compute buffers, thread pools, weight pages) is in place before the first request.
+     * Warm-up is only recorded in rag.llm.warmup, not in the per-request metrics.
+     *
+     * @throws CancellationException if warm-up did not finish within its timeout
+     */
+    public void warmUp() {
+        if (!settings.warmup) {
+            return;
+        }
+        long start = System.nanoTime();
+        CancellationToken cancellation = CancellationToken.withTimeout(settings.warmupTimeoutMs);
+        try (LoraAdapters.Lease lease = adapters.acquire(null, cancellation)) {
+            decode(settings.warmupPrompt, cancellation);
+        }
+        computeEmbedding(settings.warmupPrompt);
+        cancellation.throwIfCancelled();
+        long elapsed = System.nanoTime() - start;
+        RagMetrics.timer("rag.llm.warmup").record(elapsed, TimeUnit.NANOSECONDS);
+        log.info("✓ Model warm-up finished in {} ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    public DecodingMode getDecodingMode() {
+        return decoding.mode;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * LoRA adapters that can be loaded and unloaded over the shared base weights.
+     */
+    public LoraAdapters getAdapters() {
+        return adapters;
     }
 
     public String generateResponse(String prompt) {
-        // NATIVE JNI CALL: pass the prompt and model handle to the inference function
-        // String response = NativeLibrary.generate(modelHandle, prompt);
-        System.out.println("Generating response for prompt (length " + prompt.length() + ")");
+        return generateResponse(prompt, new CancellationToken());
+    }
+
+    /**
+     * Generates a response, stopping between tokens once the token is cancelled.
+     *
+     * @throws CancellationException if generation was cancelled or its deadline passed
+     */
+    public String generateResponse(String prompt, CancellationToken cancellation) {
+        return generateResponse(prompt, cancellation, decoding.mode);
+    }
+
+    /**
+     * Generates a response with an explicit decoding mode.
+     */
+    public String generateResponse(String prompt, CancellationToken cancellation, DecodingMode mode) {
+        return generateResponse(prompt, cancellation, mode, null);
+    }
+
+    /**
+     * Generates a response whose text is constrained by a compiled grammar, or
+     * unconstrained when grammar is null.
+     */
+    public String generateResponse(String prompt, CancellationToken cancellation, DecodingMode mode, Grammar grammar) {
+        return generateResponse(prompt, cancellation, mode, grammar, null);
+    }
+
+    /**
+     * Generates a response with a LoRA adapter applied, or with the base model alone when
+     * adapter is null. Waits while generations with a different adapter are running.
+     *
+     * @throws IllegalArgumentException if the adapter is not loaded
+     */
+    public String generateResponse(String prompt, CancellationToken cancellation, DecodingMode mode,
+                                   Grammar grammar, String adapter) {
+        try (LoraAdapters.Lease lease = adapters.acquire(adapter, cancellation)) {
+            return generate(prompt, cancellation, mode, grammar);
+        }
+    }
+
+    /**
+     * Runs one generation with whatever adapter is currently applied.
+     */
+    private String generate(String prompt, CancellationToken cancellation, DecodingMode mode, Grammar grammar) {
+        cancellation.throwIfCancelled();
+        long startEpochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        long start = System.nanoTime();
+        log.debug("Generating response for prompt (length {}, {} decoding)", prompt.length(), mode);
+        String response;
+        if (grammar != null) {
+            response = decodeConstrained(prompt, cancellation, grammar);
+        } else if (mode == DecodingMode.PROMPT_LOOKUP) {
+            response = decodeWithPromptLookup(prompt, cancellation);
+        } else if (mode == DecodingMode.DRAFT_MODEL && draftModelHandle != 0L) {
+            response = decodeWithDraftModel(prompt, cancellation);
+        } else {
+            response = decode(prompt, cancellation);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (cancellation.isCancelled()) {
+            RagMetrics.counter("rag.llm.cancelled", "reason", cancellation.isDeadlineExceeded() ? "deadline" : "cancelled").increment();
+            cancellation.throwIfCancelled();
+        }
+
+        // NATIVE JNI CALL: read llama_perf_context timings for the split between prompt processing and decoding
+        // long[] timings = NativeLibrary.lastTimings(modelHandle); // {prefillNanos, decodeNanos}
+        long[] timings = {0L, elapsed}; // Placeholder: attribute everything to decode
+        RagMetrics.recordGeneration(countTokens(prompt), countTokens(response), timings[0], timings[1]);
+        RagTracing.recordSpan("llm.prefill", startEpochNanos, startEpochNanos + timings[0]);
+        RagTracing.recordSpan("llm.decode", startEpochNanos + timings[0], startEpochNanos + timings[0] + timings[1]);
+        return response;
+    }
+
+    private String decode(String prompt, CancellationToken cancellation) {
+        // NATIVE JNI CALL: evaluate the prompt in its own sequence, then decode token by token,
+        // polling the cancellation token between tokens and freeing the sequence's KV cells
+        // (llama_kv_cache_seq_rm) as soon as decoding stops, so the slot is reusable immediately
+        // int seqId = NativeLibrary.beginSequence(modelHandle, prompt);
+        // StringBuilder out = new StringBuilder();
+        // try {
+        //     while (!cancellation.isCancelled() && NativeLibrary.decodeNext(modelHandle, seqId, out)) { }
+        // } finally {
+        //     NativeLibrary.releaseSequence(modelHandle, seqId);
+        // }
+        // return out.toString();
         return "This is a generated response from the self-contained Granite model based on the provided context."; // Placeholder response
     }
 
+    /**
+     * Decodes with the grammar masking every sampled token, so the output always matches
+     * the schema and never has to be regenerated. The drafters are not grammar-aware, so
+     * constrained generation decodes one token at a time.
+     */
+    private String decodeConstrained(String prompt, CancellationToken cancellation, Grammar grammar) {
+        // NATIVE JNI CALL: as decode, with a clone of the cached grammar sampler at the head of the
+        // sampler chain (llama_sampler_clone); the clone carries this generation's parse state
+        // long sampler = NativeLibrary.cloneSampler(grammar.samplerHandle);
+        // int seqId = NativeLibrary.beginSequence(modelHandle, prompt);
+        // StringBuilder out = new StringBuilder();
+        // try {
+        //     while (!cancellation.isCancelled() && NativeLibrary.decodeNext(modelHandle, seqId, sampler, out)) { }
+        // } finally {
+        //     NativeLibrary.releaseSequence(modelHandle, seqId);
+        //     NativeLibrary.freeSampler(sampler);
+        // }
+        // return out.toString();
+        ObjectNode placeholder = JSON.createObjectNode(); // Placeholder: shaped like CitedAnswer.SCHEMA
+        placeholder.put("answer", decode(prompt, cancellation));
+        placeholder.putArray("citations");
+        return placeholder.toString();
+    }
+
+    /**
+     * Compiles a JSON schema into a grammar for constrained generation. Compiled grammars
+     * are cached by schema, so a schema used on every request is converted and parsed once.
+     * The returned lease keeps the grammar's native sampler alive until it is closed, even
+     * if the grammar is evicted from the cache or the model is closed meanwhile.
+     *
+     * @throws IllegalArgumentException if the schema is not a JSON object or cannot be
+     *         converted to a grammar
+     */
+    public GrammarLease compileGrammar(JsonNode schema) {
+        if (schema == null || !schema.isObject()) {
+            throw new IllegalArgumentException("schema must be a JSON object");
+        }
+        String canonical = canonicalize(schema);
+        String key = KvSnapshotStore.hash(canonical);
+        synchronized (grammars) {
+            Grammar cached = grammars.get(key);
+            if (cached != null) {
+                RagMetrics.counter("rag.llm.grammar.cache", "result", "hit").increment();
+                return new GrammarLease(cached);
+            }
+        }
+        RagMetrics.counter("rag.llm.grammar.cache", "result", "miss").increment();
+
+        long start = System.nanoTime();
+        // NATIVE JNI CALL: convert the schema to GBNF with common/json-schema-to-grammar
+        // (json_schema_to_grammar) and parse it once into a grammar sampler for this model's
+        // vocabulary (llama_sampler_init_grammar, root rule "root"); returns 0 if parsing fails
+        // String gbnf = NativeLibrary.jsonSchemaToGrammar(canonical);
+        // long samplerHandle = NativeLibrary.initGrammarSampler(modelHandle, gbnf, "root");
+        String gbnf = ""; // Placeholder
+        long samplerHandle = 3L; // Placeholder
+        if (samplerHandle == 0) {
+            throw new IllegalArgumentException("schema could not be converted to a grammar");
+        }
+        RagMetrics.timer("rag.llm.grammar.compile").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        Grammar compiled = new Grammar(key, gbnf, samplerHandle);
+        synchronized (grammars) {
+            // Another request may have compiled the same schema meanwhile
+            Grammar existing = grammars.get(key);
+            if (existing != null) {
+                freeGrammar(compiled);
+                return new GrammarLease(existing);
+            }
+            // Lease before caching: the insert may evict, and must not free the new grammar
+            GrammarLease lease = new GrammarLease(compiled);
+            grammars.put(key, compiled);
+            log.debug("Compiled grammar {} for schema", key);
+            return lease;
+        }
+    }
+
+    /**
+     * Serializes a schema with sorted keys so equivalent schemas share a cache entry.
+     */
+    private static String canonicalize(JsonNode schema) {
+        try {
+            return JSON.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+                .writeValueAsString(JSON.treeToValue(schema, Object.class));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid schema: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    /**
+     * Drops a grammar from use by new requests; it is freed once no lease holds it.
+     * Called with the grammars lock held.
+     */
+    private void retire(Grammar grammar) {
+        grammar.retired = true;
+        if (grammar.leases == 0) {
+            freeGrammar(grammar);
+        }
+    }
+
+    private void freeGrammar(Grammar grammar) {
+        // Requests clone the sampler only when they start decoding, after admission, so it
+        // must stay alive while any lease is open
+        if (grammar.freed) {
+            return;
+        }
+        grammar.freed = true;
+        // NATIVE JNI CALL: free the cached grammar sampler
+        // NativeLibrary.freeSampler(grammar.samplerHandle);
+    }
+
+    /**
+     * Prompt-lookup speculative decoding: drafts the next tokens from n-gram matches in the
+     * prompt and answer so far, then verifies the whole draft in one batched decode, keeping
+     * the prefix the model agrees with plus the model's own next token.
+     */
+    private String decodeWithPromptLookup(String prompt, CancellationToken cancellation) {
+        int[] promptTokens = tokenize(prompt);
+        // NATIVE JNI CALL: evaluate the prompt in its own sequence
+        // int seqId = NativeLibrary.beginSequence(modelHandle, promptTokens);
+        int[] reference = placeholderContinuation(prompt, cancellation); // Placeholder: stands in for the model
+        PromptLookupDrafter drafter = new PromptLookupDrafter(promptTokens, decoding.lookupMinNgram, decoding.lookupMaxNgram);
+        StringBuilder out = new StringBuilder();
+        int position = 0;
+        boolean done = false;
+        while (!done && !cancellation.isCancelled()) {
+            int[] draft = drafter.draft(decoding.draftMax);
+            // NATIVE JNI CALL: decode the last token plus the draft in one llama_batch, sample every
+            // position and return the agreeing draft prefix followed by the model's token; rejected
+            // cells are removed from the KV cache (llama_kv_cache_seq_rm)
+            // int[] accepted = NativeLibrary.verifyDraft(modelHandle, seqId, draft);
+            int[] accepted = verifyAgainst(reference, position, draft); // Placeholder
+            RagMetrics.recordSpeculation("prompt_lookup", draft.length, accepted.length - 1);
+            drafter.accept(accepted);
+            position += accepted.length;
+            done = accepted[accepted.length - 1] == END_OF_GENERATION;
+            out.append(detokenize(accepted));
+        }
+        // NATIVE JNI CALL: free the sequence's KV cells, also when decoding stopped early (in a finally)
+        // NativeLibrary.releaseSequence(modelHandle, seqId);
+        return out.toString();
+    }
+
+    /**
+     * Returns the token ids the model's vocabulary assigns to the text.
+     */
+    private int[] tokenize(String text) {
+        // NATIVE JNI CALL: tokenize with the model vocabulary
+        // return NativeLibrary.tokenize(modelHandle, text);
+        return text.codePoints().toArray(); // Placeholder: one token per code point
+    }
+
+    private String detokenize(int[] tokens) {
+        // NATIVE JNI CALL: convert each token back to its text piece (llama_token_to_piece)
+        StringBuilder text = new StringBuilder();
+        for (int token : tokens) {
+            if (token != END_OF_GENERATION) {
+                text.appendCodePoint(token); // Placeholder: inverse of tokenize
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Placeholder for the model's own output: the tokens of the standard response followed
+     * by end-of-generation, which verification compares drafts against.
+     */
+    private int[] placeholderContinuation(String prompt, CancellationToken cancellation) {
+        int[] tokens = tokenize(decode(prompt, cancellation));
+        int[] continuation = Arrays.copyOf(tokens, tokens.length + 1);
+        continuation[tokens.length] = END_OF_GENERATION;
+        return continuation;
+    }
+
+    /**
+     * Placeholder for batched draft verification: accepts the draft prefix that matches the
+     * continuation at the position, plus the continuation's next token.
+     */
+    private static int[] verifyAgainst(int[] continuation, int position, int[] draft) {
+        int agreed = 0;
+        while (agreed < draft.length && position + agreed < continuation.length - 1
+                && draft[agreed] == continuation[position + agreed]) {
+            agreed++;
+        }
+        return Arrays.copyOfRange(continuation, position, position + agreed + 1);
+    }
+
+    /**
+     * Enables persisted KV-cache snapshots for named contexts; null disables them.
+     */
+    public void setSnapshotStore(KvSnapshotStore snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Generates an answer to a question over a fixed, named context (a notebook). When a
+     * snapshot of that exact context exists, its KV cache is restored from the mapped file
+     * and only the question is prefilled; otherwise the context is snapshotted for next time.
+     */
+    public String generateWithContext(String contextName, String context, String question,
+                                      CancellationToken cancellation, DecodingMode mode) {
+        return generateWithContext(contextName, context, question, cancellation, mode, null);
+    }
+
+    /**
+     * Generates over a named context with the answer constrained by a grammar, or
+     * unconstrained when grammar is null.
+     */
+    public String generateWithContext(String contextName, String context, String question,
+                                      CancellationToken cancellation, DecodingMode mode, Grammar grammar) {
+        return generateWithContext(contextName, context, question, cancellation, mode, grammar, null);
+    }
+
+    /**
+     * Generates over a named context with a LoRA adapter applied. The adapter changes the
+     * context's KV state, so each adapter keeps its own snapshot of the notebook.
+     */
+    public String generateWithContext(String contextName, String context, String question,
+                                      CancellationToken cancellation, DecodingMode mode, Grammar grammar, String adapter) {
+        try (LoraAdapters.Lease lease = adapters.acquire(adapter, cancellation)) {
+            return generateWithSnapshot(adapter != null && contextName != null ? contextName + "@" + adapter : contextName,
+                context, question, cancellation, mode, grammar);
+        }
+    }
+
+    private String generateWithSnapshot(String contextName, String context, String question,
+                                        CancellationToken cancellation, DecodingMode mode, Grammar grammar) {
+        KvSnapshotStore store = snapshots;
+        if (store == null || contextName == null) {
+            return generate(context + question, cancellation, mode, grammar);
+        }
+        cancellation.throwIfCancelled();
+
+        KvSnapshotStore.Snapshot snapshot = store.find(contextName, KvSnapshotStore.hash(context));
+        if (snapshot != null) {
+            RagMetrics.counter("rag.llm.kv.snapshot", "result", "hit").increment();
+            // NATIVE JNI CALL: restore the context into a fresh sequence straight from the mapped file
+            // (llama_state_seq_set_data), then prefill only the question tokens and decode as usual
+            // int seqId = NativeLibrary.beginSequenceFromState(modelHandle, snapshot.getData(), snapshot.getTokenCount());
+            // return NativeLibrary.continueSequence(modelHandle, seqId, question, mode, grammar, cancellation::isCancelled);
+            return generate(context + question, cancellation, mode, grammar); // Placeholder: full prefill
+        }
+
+        RagMetrics.counter("rag.llm.kv.snapshot", "result", "miss").increment();
+        // NATIVE JNI CALL: prefill the context in the sequence that will answer and save its state
+        // before the question is added, so a miss prefills the context once, then continue as on a hit
+        // int seqId = NativeLibrary.beginSequence(modelHandle, context);
+        // saveSnapshot(store, contextName, context, seqId);
+        // return NativeLibrary.continueSequence(modelHandle, seqId, question, mode, grammar, cancellation::isCancelled);
+        saveSnapshot(store, contextName, context, 0); // Placeholder: no native sequence
+        return generate(context + question, cancellation, mode, grammar); // Placeholder: full prefill
+    }
+
+    /**
+     * Prefills a context once and persists its KV state under the given name, so the first
+     * question against it is served from the snapshot too.
+     *
+     * @return true if a snapshot was written
+     */
+    public boolean precomputeContext(String contextName, String context, CancellationToken cancellation) {
+        KvSnapshotStore store = snapshots;
+        if (store == null) {
+            return false;
+        }
+        try (LoraAdapters.Lease lease = adapters.acquire(null, cancellation)) {
+            if (store.find(contextName, KvSnapshotStore.hash(context)) != null) {
+                return true;
+            }
+            // NATIVE JNI CALL: prefill the context in a scratch sequence, save it, then free the sequence
+            // int seqId = NativeLibrary.beginSequence(modelHandle, context);
+            // try {
+            //     return saveSnapshot(store, contextName, context, seqId);
+            // } finally {
+            //     NativeLibrary.releaseSequence(modelHandle, seqId);
+            // }
+            return saveSnapshot(store, contextName, context, 0); // Placeholder: no native sequence
+        }
+    }
+
+    /**
+     * Writes the KV state of a sequence holding exactly the prefilled context.
+     */
+    private boolean saveSnapshot(KvSnapshotStore store, String contextName, String context, int seqId) {
+        try {
+            Path tempFile = store.newTempFile(contextName);
+            // NATIVE JNI CALL: write the sequence's state with its prompt tokens to the temp file
+            // (llama_state_seq_save_file)
+            // NativeLibrary.saveSequenceState(modelHandle, seqId, tempFile.toString());
+            return store.commit(contextName, KvSnapshotStore.hash(context), countTokens(context), tempFile);
+        } catch (IOException e) {
+            log.warn("Failed to snapshot context {}", contextName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Draft-model speculative decoding, as in llama.cpp common/speculative: the small draft
+     * model proposes up to draftMax tokens (stopping early when its confidence drops below
+     * draftPMin), and the main model verifies them in one batched decode. Verification uses
+     * the main model's sampling, so the output distribution is unchanged.
+     */
+    private String decodeWithDraftModel(String prompt, CancellationToken cancellation) {
+        // NATIVE JNI CALL: evaluate the prompt in both models, then alternate drafting and verifying
+        // int[] promptTokens = NativeLibrary.tokenize(modelHandle, prompt);
+        // int seqId = NativeLibrary.beginSequence(modelHandle, promptTokens);
+        // long speculative = NativeLibrary.speculativeInit(draftModelHandle);
+        // StringBuilder out = new StringBuilder();
+        // try {
+        //     boolean done = false;
+        //     while (!done && !cancellation.isCancelled()) {
+        //         int[] draft = NativeLibrary.speculativeDraft(speculative, seqId, decoding.draftMax, decoding.draftPMin);
+        //         if (draft.length < decoding.draftMin) {
+        //             draft = new int[0]; // Too short to pay for a batched verify; decode one token
+        //         }
+        //         int[] accepted = NativeLibrary.verifyDraft(modelHandle, seqId, draft, out);
+        //         RagMetrics.recordSpeculation("draft_model", draft.length, accepted.length - 1);
+        //         done = NativeLibrary.isEndOfGeneration(modelHandle, accepted[accepted.length - 1]);
+        //     }
+        // } finally {
+        //     NativeLibrary.speculativeFree(speculative);
+        //     NativeLibrary.releaseSequence(modelHandle, seqId);
+        // }
+        // return out.toString();
+        return decode(prompt, cancellation); // Placeholder: no native draft model to run
+    }
+
+    /**
+     * Generates responses for several prompts together, one sequence per prompt, so each
+     * decode step advances every sequence and the weights are read once per step. Each
+     * sequence has its own deadline from when it starts decoding and is reported to the
+     * handler as soon as it finishes, so one slow prompt does not cost the others their results.
+     * Cancelling the token stops the sequences that are still running.
+     */
+    public void generateBatch(List<String> prompts, long sequenceTimeoutMs, CancellationToken cancellation,
+                              BatchResultHandler handler) {
+        // NATIVE JNI CALL: add every prompt to one llama_batch under its own seq_id and decode them
+        // together, releasing each sequence's KV cells as soon as it reaches end-of-generation or
+        // its deadline, and reporting it through the handler
+        // NativeLibrary.generateBatch(modelHandle, prompts.toArray(new String[0]), sequenceTimeoutMs,
+        //     cancellation::isCancelled, handler::onResult, handler::onError);
+        try (LoraAdapters.Lease lease = adapters.acquire(null, cancellation)) {
+            for (int i = 0; i < prompts.size(); i++) { // Placeholder: one prompt at a time
+                cancellation.throwIfCancelled();
+                CancellationToken sequence = CancellationToken.withTimeout(sequenceTimeoutMs);
+                Runnable cancelSequence = sequence::cancel;
+                cancellation.onCancel(cancelSequence);
+                try {
+                    handler.onResult(i, generate(prompts.get(i), sequence, decoding.mode, null));
+                } catch (CancellationException e) {
+                    cancellation.throwIfCancelled();
+                    handler.onError(i, "Generation exceeded its deadline");
+                } catch (RuntimeException e) {
+                    log.warn("Batch sequence {} failed", i, e);
+                    handler.onError(i, e.getMessage());
+                } finally {
+                    cancellation.removeCallback(cancelSequence);
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives each sequence of a batched generation as it finishes.
+     */
+    public interface BatchResultHandler {
+        void onResult(int index, String response);
+
+        void onError(int index, String error);
+    }
+
     public List<Float> generateEmbedding(String text) {
+        Span span = RagTracing.tracer().spanBuilder("rag.embedding").startSpan();
+        try (Scope scope = span.makeCurrent()) {
+            return embed(text);
+        } finally {
+            span.end();
+        }
+    }
+
+    private List<Float> embed(String text) {
+        long start = System.nanoTime();
+        List<Float> embedding = computeEmbedding(text);
+        EMBEDDING_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return embedding;
+    }
+
+    private List<Float> computeEmbedding(String text) {
         // NATIVE JNI CALL: pass the text and model handle to the embedding function
-        // List<Float> embedding = NativeLibrary.embed(modelHandle, text);
+        // return NativeLibrary.embed(modelHandle, text);
         // The dimension must match what Solr is configured for.
-        System.out.println("Generating embedding for text: " + text.substring(0, Math.min(50, text.length())) + "...");
-        return List.of(new Float[384]); // Placeholder embedding
+        if (log.isDebugEnabled()) {
+            log.debug("Generating embedding for text: {}...", text.substring(0, Math.min(50, text.length())));
+        }
+        return Collections.nCopies(384, 0f); // Placeholder embedding
+    }
+
+    /**
+     * Returns the number of tokens the model's tokenizer produces for the text.
+     */
+    public int countTokens(String text) {
+        // NATIVE JNI CALL: tokenize with the model vocabulary
+        // return NativeLibrary.tokenize(modelHandle, text).length;
+        return (text.length() + 3) / 4; // Placeholder: ~4 characters per token
     }
 
     @Override
     public void close() {
+        synchronized (grammars) {
+            grammars.values().forEach(this::retire);
+            grammars.clear();
+        }
         // NATIVE JNI CALL: free the model from memory using its handle
         // NativeLibrary.freeModel(modelHandle);
-        System.out.println("✓ Granite model released from memory.");
+        // if (draftModelHandle != 0L) NativeLibrary.freeModel(draftModelHandle);
+        // Unloaded models must not keep reporting memory they no longer hold
+        meters.forEach(RagMetrics.registry()::remove);
+        log.info("✓ Granite model released from memory.");
+    }
+
+    /**
+     * Decoding settings from rag.config.decoding.* properties.
+     */
+    public static class DecodingSettings {
+        private DecodingMode mode = DecodingMode.STANDARD;
+        private int lookupMinNgram = 2;
+        private int lookupMaxNgram = 4;
+        private int draftMax = 10;
+        private int draftMin = 2;
+        private float draftPMin = 0.75f;
+        private String draftModelPath;
+
+        public static DecodingSettings fromConfig(Properties config) {
+            DecodingSettings settings = new DecodingSettings();
+            settings.mode = DecodingMode.parse(config.getProperty("rag.config.decoding.mode"), DecodingMode.STANDARD);
+            settings.lookupMinNgram = Integer.parseInt(config.getProperty("rag.config.decoding.lookupMinNgram", "2"));
+            settings.lookupMaxNgram = Integer.parseInt(config.getProperty("rag.config.decoding.lookupMaxNgram", "4"));
+            settings.draftMax = Integer.parseInt(config.getProperty("rag.config.decoding.draftMax", "10"));
+            settings.draftMin = Integer.parseInt(config.getProperty("rag.config.decoding.draftMin", "2"));
+            settings.draftPMin = Float.parseFloat(config.getProperty("rag.config.decoding.draftPMin", "0.75"));
+            settings.draftModelPath = config.getProperty("rag.config.graniteDraftModelPath");
+            return settings;
+        }
+
+        /**
+         * Uses the given draft model for speculative decoding instead of the configured one.
+         */
+        public DecodingSettings withDraftModel(String path) {
+            this.draftModelPath = path;
+            return this;
+        }
+
+        public DecodingMode getMode() { return mode; }
+    }
+
+    /**
+     * KV cache element types; quantized types trade a little accuracy for much less memory
+     * per context cell, so more concurrent sequences fit on a node.
+     */
+    public enum KvCacheType {
+        F16(1, 2.0), Q8_0(8, 34.0 / 32), Q4_0(2, 18.0 / 32);
+
+        private final int ggmlType;
+        private final double bytesPerElement;
+
+        KvCacheType(int ggmlType, double bytesPerElement) {
+            this.ggmlType = ggmlType;
+            this.bytesPerElement = bytesPerElement;
+        }
+
+        public static KvCacheType parse(String value) {
+            return value == null || value.isBlank() ? F16 : valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * A JSON schema compiled to a GBNF grammar and parsed for this model's vocabulary.
+     */
+    public static class Grammar {
+        private final String schemaHash;
+        private final String gbnf;
+        private final long samplerHandle;
+        // Guarded by the grammars lock
+        private int leases;
+        private boolean retired;
+        private boolean freed;
+
+        Grammar(String schemaHash, String gbnf, long samplerHandle) {
+            this.schemaHash = schemaHash;
+            this.gbnf = gbnf;
+            this.samplerHandle = samplerHandle;
+        }
+
+        public String getSchemaHash() { return schemaHash; }
+        public String getGbnf() { return gbnf; }
+
+        boolean isFreed() { return freed; }
+    }
+
+    /**
+     * A request's hold on a compiled grammar; close it once generation has finished.
+     */
+    public class GrammarLease implements AutoCloseable {
+        private final Grammar grammar;
+        private boolean released;
+
+        // Called with the grammars lock held
+        private GrammarLease(Grammar grammar) {
+            this.grammar = grammar;
+            grammar.leases++;
+        }
+
+        public Grammar get() {
+            return grammar;
+        }
+
+        @Override
+        public void close() {
+            synchronized (grammars) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                if (--grammar.leases == 0 && grammar.retired) {
+                    freeGrammar(grammar);
+                }
+            }
+        }
+    }
+
+    /**
+     * Native memory held by the model.
+     */
+    public static class MemoryUsage {
+        private final long modelBytes;
+        private final long kvCacheBytes;
+        private final long computeBufferBytes;
+
+        public MemoryUsage(long modelBytes, long kvCacheBytes, long computeBufferBytes) {
+            this.modelBytes = modelBytes;
+            this.kvCacheBytes = kvCacheBytes;
+            this.computeBufferBytes = computeBufferBytes;
+        }
+
+        public long getModelBytes() { return modelBytes; }
+        public long getKvCacheBytes() { return kvCacheBytes; }
+        public long getComputeBufferBytes() { return computeBufferBytes; }
+        public long getTotalBytes() { return modelBytes + kvCacheBytes + computeBufferBytes; }
+    }
+
+    /**
+     * Model loading, context and start-up settings from rag.config.model.* properties.
+     */
+    public static class ModelSettings {
+        private boolean useMmap = true;
+        private boolean mlock = false;
+        private boolean prefetch = false;
+        private boolean warmup = true;
+        private String warmupPrompt = "Hello";
+        private long warmupTimeoutMs = 60000;
+        private int contextSize = 4096;
+        private int batchSize = 2048;
+        private int ubatchSize = 512;
+        private int parallelSequences = 4;
+        private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int batchThreads = Runtime.getRuntime().availableProcessors();
+        private KvCacheType kvCacheTypeK = KvCacheType.F16;
+        private KvCacheType kvCacheTypeV = KvCacheType.F16;
+        private boolean flashAttention = false;
+        private int grammarCacheSize = 32;
+        private Path loraDir;
+
+        /**
+         * Overrides the context size, e.g. for embedding models that only see one chunk at a time.
+         */
+        public ModelSettings withContextSize(int contextSize) {
+            this.contextSize = contextSize;
+            return this;
+        }
+
+        public static ModelSettings fromConfig(Properties config) {
+            ModelSettings settings = new ModelSettings();
+            settings.useMmap = Boolean.parseBoolean(config.getProperty("rag.config.model.mmap", "true"));
+            settings.mlock = Boolean.parseBoolean(config.getProperty("rag.config.model.mlock", "false"));
+            settings.prefetch = Boolean.parseBoolean(config.getProperty("rag.config.model.prefetch", "false"));
+            settings.warmup = Boolean.parseBoolean(config.getProperty("rag.config.model.warmup.enabled", "true"));
+            settings.warmupPrompt = config.getProperty("rag.config.model.warmup.prompt", "Hello");
+            settings.warmupTimeoutMs = Long.parseLong(config.getProperty("rag.config.model.warmup.timeoutMs", "60000"));
+            settings.contextSize = Integer.parseInt(config.getProperty("rag.config.model.contextSize", "4096"));
+            settings.batchSize = Integer.parseInt(config.getProperty("rag.config.model.batchSize", "2048"));
+            settings.ubatchSize = Integer.parseInt(config.getProperty("rag.config.model.ubatchSize", "512"));
+            settings.parallelSequences = Integer.parseInt(config.getProperty("rag.config.model.parallelSequences", "4"));
+            // 0 keeps the default derived from the number of cores
+            int threads = Integer.parseInt(config.getProperty("rag.config.model.threads", "0"));
+            int batchThreads = Integer.parseInt(config.getProperty("rag.config.model.batchThreads", "0"));
+            if (threads > 0) {
+                settings.threads = threads;
+            }
+            if (batchThreads > 0) {
+                settings.batchThreads = batchThreads;
+            }
+            settings.kvCacheTypeK = KvCacheType.parse(config.getProperty("rag.config.model.kvCacheTypeK", "f16"));
+            settings.kvCacheTypeV = KvCacheType.parse(config.getProperty("rag.config.model.kvCacheTypeV", "f16"));
+            settings.flashAttention = Boolean.parseBoolean(config.getProperty("rag.config.model.flashAttention", "false"));
+            settings.grammarCacheSize = Integer.parseInt(config.getProperty("rag.config.model.grammarCacheSize", "32"));
+            String loraDir = config.getProperty("rag.config.lora.dir", "");
+            settings.loraDir = loraDir.isBlank() ? null : Paths.get(loraDir);
+            return settings;
+        }
     }
 }
@@ -0,0 +1,35 @@
+package com.notebooklm;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Readiness probe: 200 once the model is loaded and warmed up, 503 before that
+ * and after a failed warm-up.
+ */
+public class HealthServlet extends HttpServlet {
+    private final BooleanSupplier ready;
+    private final BooleanSupplier failed;
+
+    public HealthServlet(BooleanSupplier ready) {
+        this(ready, () -> false);
+    }
+
+    public HealthServlet(BooleanSupplier ready, BooleanSupplier failed) {
+        this.ready = ready;
+        this.failed = failed;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        boolean isReady = ready.getAsBoolean();
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setStatus(isReady ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        String status = isReady ? "ready" : failed.getAsBoolean() ? "failed" : "warming_up";
+        resp.getWriter().write("{\"status\":\"" + status + "\"}");
+    }
+}
@@ -0,0 +1,134 @@
+package com.notebooklm;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pooled HTTP transport shared by the CouchDB and internal LLM clients.
+ * Provides connection pooling, keep-alive, idle eviction, timeouts and
+ * retries with exponential backoff for requests that are safe to repeat.
+ */
+public class HttpTransport implements AutoCloseable {
+    private final CloseableHttpClient httpClient;
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    public HttpTransport(Settings settings) {
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(settings.maxTotalConnections);
+        connectionManager.setDefaultMaxPerRoute(settings.maxConnectionsPerRoute);
+        // Re-check connections that sat idle in the pool before reusing them
+        connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(settings.connectTimeoutMs)
+            .setSocketTimeout(settings.socketTimeoutMs)
+            .setConnectionRequestTimeout(settings.connectionRequestTimeoutMs)
+            .build();
+
+        this.httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy((response, context) -> {
+                long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return serverKeepAlive > 0 ? Math.min(serverKeepAlive, settings.keepAliveMs) : settings.keepAliveMs;
+            })
+            .evictExpiredConnections()
+            .evictIdleConnections(settings.idleEvictionMs, TimeUnit.MILLISECONDS)
+            .setRetryHandler((exception, executionCount, context) ->
+                shouldRetry(exception, executionCount, context, settings))
+            .build();
+    }
+
+    /**
+     * Creates a transport configured from rag.config.http.* properties.
+     */
+    public static HttpTransport fromConfig(Properties config) {
+        return new HttpTransport(Settings.fromConfig(config));
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Decides whether a failed request is retried, sleeping with exponential backoff first.
+     * Requests with a body (e.g. generation POSTs) are only retried if they were never sent,
+     * so a slow generation is not silently re-run.
+     */
+    private static boolean shouldRetry(IOException exception, int executionCount,
+                                       HttpContext context, Settings settings) {
+        if (executionCount > settings.maxRetries) {
+            return false;
+        }
+        boolean connectFailure = exception instanceof ConnectTimeoutException
+            || exception instanceof HttpHostConnectException
+            || exception instanceof NoHttpResponseException;
+        if (!connectFailure) {
+            return false;
+        }
+
+        HttpClientContext clientContext = HttpClientContext.adapt(context);
+        HttpRequest request = clientContext.getRequest();
+        boolean idempotent = !(request instanceof HttpEntityEnclosingRequest);
+        if (!idempotent && clientContext.isRequestSent()) {
+            return false;
+        }
+
+        try {
+            Thread.sleep(settings.retryBackoffMs * (1L << (executionCount - 1)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+        connectionManager.close();
+    }
+
+    /**
+     * Tunable settings for the pooled transport.
+     */
+    public static class Settings {
+        private int maxTotalConnections = 50;
+        private int maxConnectionsPerRoute = 20;
+        private int connectTimeoutMs = 5000;
+        private int socketTimeoutMs = 300000; // Generation can take minutes for long prompts
+        private int connectionRequestTimeoutMs = 10000;
+        private long keepAliveMs = 30000;
+        private long idleEvictionMs = 60000;
+        private int maxRetries = 3;
+        private long retryBackoffMs = 200;
+
+        public static Settings fromConfig(Properties config) {
+            Settings settings = new Settings();
+            settings.maxTotalConnections = Integer.parseInt(config.getProperty("rag.config.http.maxTotalConnections", "50"));
+            settings.maxConnectionsPerRoute = Integer.parseInt(config.getProperty("rag.config.http.maxConnectionsPerRoute", "20"));
+            settings.connectTimeoutMs = Integer.parseInt(config.getProperty("rag.config.http.connectTimeoutMs", "5000"));
+            settings.socketTimeoutMs = Integer.parseInt(config.getProperty("rag.config.http.socketTimeoutMs", "300000"));
+            settings.connectionRequestTimeoutMs = Integer.parseInt(config.getProperty("rag.config.http.connectionRequestTimeoutMs", "10000"));
+            settings.keepAliveMs = Long.parseLong(config.getProperty("rag.config.http.keepAliveMs", "30000"));
+            settings.idleEvictionMs = Long.parseLong(config.getProperty("rag.config.http.idleEvictionMs", "60000"));
+            settings.maxRetries = Integer.parseInt(config.getProperty("rag.config.http.maxRetries", "3"));
+            settings.retryBackoffMs = Long.parseLong(config.getProperty("rag.config.http.retryBackoffMs", "200"));
+            return settings;
+        }
+    }
+}
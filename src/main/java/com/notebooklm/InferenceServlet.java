@@ -3,41 +3,310 @@ package com.notebooklm;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import javax.servlet.http.HttpServlet;
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+/**
+ * Serves /api/generate with async servlet processing: the container thread only parses
+ * the request and hands it to the model scheduler, which completes it when generation
+ * finishes. Health checks and /metrics stay responsive while generations are in flight.
+ * Notebook contexts ("context_id") and LoRA adapters ("adapter") are only attached to the
+ * default chat model, as are /api/contexts and /api/adapters, so requests naming another
+ * "model" cannot use them.
+ */
 public class InferenceServlet extends HttpServlet {
-    private final GraniteModelWrapper modelWrapper;
+    private static final Logger log = LoggerFactory.getLogger(InferenceServlet.class);
+
+    private final ModelRegistry models;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AdmissionController admission;
+    private final boolean ownsAdmission;
+    private final Gauge inFlightGauge;
+    // Requests wait here for admission and generation; virtual threads make waiting cheap
+    private final ExecutorService scheduler = RagExecutors.newTaskExecutor("llm-scheduler", true, 1);
+    // Cancellation tokens of running requests that supplied a request_id
+    private final Map<String, CancellationToken> active = new ConcurrentHashMap<>();
 
     public InferenceServlet(GraniteModelWrapper modelWrapper) {
-        this.modelWrapper = modelWrapper;
+        this(ModelRegistry.of(modelWrapper), new AdmissionController(new AdmissionController.Settings()), true);
+    }
+
+    public InferenceServlet(GraniteModelWrapper modelWrapper, AdmissionController admission) {
+        this(ModelRegistry.of(modelWrapper), admission);
+    }
+
+    /**
+     * Serves the chat models of a registry, selected per request by "model".
+     * The admission controller is not closed when the servlet is destroyed.
+     */
+    public InferenceServlet(ModelRegistry models, AdmissionController admission) {
+        this(models, admission, false);
+    }
+
+    private InferenceServlet(ModelRegistry models, AdmissionController admission, boolean ownsAdmission) {
+        this.models = models;
+        this.admission = admission;
+        this.ownsAdmission = ownsAdmission;
+        this.inFlightGauge = RagMetrics.gauge("rag.inference.in.flight", inFlight::get);
     }
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        JsonNode requestNode;
         try {
             String body = req.getReader().lines().collect(Collectors.joining(System.lineSeparator()));
-            JsonNode requestNode = objectMapper.readTree(body);
-            String prompt = requestNode.get("prompt").asText();
+            requestNode = objectMapper.readTree(body);
+            if (requestNode == null || !requestNode.hasNonNull("prompt")) {
+                throw new IllegalArgumentException("missing prompt");
+            }
+            // Optional "model" names a chat model from the registry; the default one otherwise
+            String model = requestNode.path("model").asText(null);
+            if (model != null && !models.contains(model, ModelRegistry.Role.CHAT)) {
+                throw new IllegalArgumentException("unknown model " + model);
+            }
+            if (model != null && !model.equals(models.getDefaultName(ModelRegistry.Role.CHAT))
+                    && (requestNode.hasNonNull("adapter") || requestNode.hasNonNull("context_id"))) {
+                throw new IllegalArgumentException("adapter and context_id are only supported on the default model "
+                    + models.getDefaultName(ModelRegistry.Role.CHAT));
+            }
+            // A zero timeout would disable the container's async timeout; a negative one has already passed
+            if (requestNode.has("timeout_ms")
+                    && (!requestNode.get("timeout_ms").canConvertToLong() || requestNode.get("timeout_ms").asLong() <= 0)) {
+                throw new IllegalArgumentException("timeout_ms must be a positive number of milliseconds");
+            }
+        } catch (Exception e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid generation request: " + e.getMessage());
+            return;
+        }
+
+        // Release the container thread; the scheduler completes the response
+        AsyncContext asyncContext = req.startAsync();
+        InferenceRequest inference = new InferenceRequest(asyncContext, requestNode, RagTracing.extract(req));
+        asyncContext.setTimeout(inference.timeoutMs);
+        asyncContext.addListener(inference);
+        try {
+            scheduler.execute(inference);
+        } catch (RejectedExecutionException e) {
+            inference.fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server is shutting down", "rejected");
+        }
+    }
 
-            // Perform inference using the model wrapper
-            String generatedText = modelWrapper.generateResponse(prompt);
+    /**
+     * Cancels a running generation: DELETE /api/generate?id=&lt;request_id&gt;.
+     */
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String requestId = req.getParameter("id");
+        CancellationToken cancellation = requestId != null ? active.get(requestId) : null;
+        if (cancellation == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "No running request with id " + requestId);
+            return;
+        }
+        cancellation.cancel();
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
 
-            // Create JSON response
-            resp.setContentType("application/json");
-            resp.setCharacterEncoding("UTF-8");
-            ObjectNode responseNode = objectMapper.createObjectNode();
-            responseNode.put("response", generatedText);
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        RagMetrics.registry().remove(inFlightGauge);
+        if (ownsAdmission) {
+            admission.close();
+        }
+        super.destroy();
+    }
 
-            resp.getWriter().write(objectMapper.writeValueAsString(responseNode));
-            resp.setStatus(HttpServletResponse.SC_OK);
+    /**
+     * One in-flight generation. Exactly one of the scheduler task or the async
+     * listener (timeout, client disconnect) finishes it.
+     */
+    private class InferenceRequest implements Runnable, AsyncListener {
+        private final AsyncContext asyncContext;
+        private final String prompt;
+        private final String contextId;
+        private final String context;
+        private final AdmissionController.Priority priority;
+        private final String model;
+        private final String decoding;
+        private final JsonNode schema;
+        private final String adapter;
+        private final long timeoutMs;
+        private final long deadlineNanos;
+        private final CancellationToken cancellation;
+        private final String requestId;
+        private final Span span;
+        private final Timer.Sample sample = Timer.start(RagMetrics.registry());
+        private final AtomicBoolean finished = new AtomicBoolean();
 
-        } catch (Exception e) {
-            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to generate response: " + e.getMessage());
+        InferenceRequest(AsyncContext asyncContext, JsonNode requestNode, Context parent) {
+            this.asyncContext = asyncContext;
+            this.model = requestNode.path("model").asText(null);
+            // Optional "schema" (JSON schema) constrains the response to matching JSON
+            this.schema = requestNode.hasNonNull("schema") ? requestNode.get("schema") : null;
+            // Optional "adapter" names a loaded LoRA adapter to generate with
+            this.adapter = requestNode.path("adapter").asText(null);
+            this.prompt = requestNode.get("prompt").asText();
+            // Optional named notebook context prepended to the prompt, served from a KV snapshot
+            this.contextId = requestNode.path("context_id").asText(null);
+            this.context = requestNode.path("context").asText("");
+            // Optional "priority" (interactive|batch) and "timeout_ms" (capped at the configured maximum)
+            // bound queueing and decoding
+            this.priority = AdmissionController.Priority.parse(requestNode.path("priority").asText(null));
+            this.timeoutMs = Math.min(requestNode.path("timeout_ms").asLong(admission.getDefaultDeadlineMs()),
+                admission.getMaxDeadlineMs());
+            // Optional "decoding" (standard|prompt_lookup) overrides the model's configured mode
+            this.decoding = requestNode.path("decoding").asText(null);
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            this.cancellation = new CancellationToken(deadlineNanos);
+            this.requestId = requestNode.path("request_id").asText(null);
+            if (requestId != null) {
+                active.put(requestId, cancellation);
+            }
+            inFlight.incrementAndGet();
+            // Continue the caller's trace propagated via traceparent headers
+            this.span = RagTracing.tracer().spanBuilder("llm.inference")
+                .setParent(parent)
+                .setSpanKind(SpanKind.SERVER)
+                .setAttribute("llm.priority", priority.name().toLowerCase())
+                .setAttribute("llm.constrained", schema != null)
+                .setAttribute("llm.adapter", adapter != null ? adapter : "")
+                .startSpan();
+        }
+
+        @Override
+        public void run() {
+            try (Scope scope = span.makeCurrent()) {
+                String generatedText;
+                // Load the model if needed before taking a generation slot, so loading does not hold one
+                try (ModelRegistry.Lease lease = models.acquire(ModelRegistry.Role.CHAT, model)) {
+                    GraniteModelWrapper modelWrapper = lease.get(GraniteModelWrapper.class);
+                    span.setAttribute("llm.model", lease.getName());
+                    GraniteModelWrapper.DecodingMode decodingMode =
+                        GraniteModelWrapper.DecodingMode.parse(decoding, modelWrapper.getDecodingMode());
+                    // The lease keeps the compiled grammar alive while the request waits for a slot
+                    try (GraniteModelWrapper.GrammarLease grammarLease = schema != null ? modelWrapper.compileGrammar(schema) : null) {
+                        GraniteModelWrapper.Grammar grammar = grammarLease != null ? grammarLease.get() : null;
+                        // Perform inference using the model wrapper once a generation slot is free
+                        try (AdmissionController.Permit permit = admission.acquire(priority, deadlineNanos, cancellation)) {
+                            generatedText = contextId != null
+                                ? modelWrapper.generateWithContext(contextId, context, prompt, cancellation, decodingMode, grammar, adapter)
+                                : modelWrapper.generateResponse(prompt, cancellation, decodingMode, grammar, adapter);
+                        }
+                    }
+                }
+
+                ObjectNode responseNode = objectMapper.createObjectNode();
+                responseNode.put("response", generatedText);
+                succeed(objectMapper.writeValueAsString(responseNode));
+            } catch (AdmissionController.RejectedException e) {
+                fail(e.getStatusCode(), e.getMessage(), "rejected", e.getRetryAfterSeconds());
+            } catch (IllegalArgumentException e) {
+                // Invalid schema, or an adapter that is not loaded on this model
+                fail(HttpServletResponse.SC_BAD_REQUEST, e.getMessage(), "rejected");
+            } catch (CancellationException e) {
+                fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Generation cancelled: " + e.getMessage(), "cancelled");
+            } catch (Exception e) {
+                RagTracing.recordError(span, e);
+                fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to generate response: " + e.getMessage(), "error");
+            }
+        }
+
+        private void succeed(String json) {
+            if (!finish("success")) {
+                return;
+            }
+            try {
+                HttpServletResponse resp = (HttpServletResponse) asyncContext.getResponse();
+                resp.setContentType("application/json");
+                resp.setCharacterEncoding("UTF-8");
+                resp.setStatus(HttpServletResponse.SC_OK);
+                resp.getWriter().write(json);
+            } catch (IOException e) {
+                log.debug("Failed to write generation response", e);
+            } finally {
+                asyncContext.complete();
+            }
+        }
+
+        void fail(int status, String message, String outcome) {
+            fail(status, message, outcome, -1L);
+        }
+
+        void fail(int status, String message, String outcome, long retryAfterSeconds) {
+            if (!finish(outcome)) {
+                return;
+            }
+            try {
+                HttpServletResponse resp = (HttpServletResponse) asyncContext.getResponse();
+                if (retryAfterSeconds > 0) {
+                    resp.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+                }
+                resp.sendError(status, message);
+            } catch (IOException e) {
+                log.debug("Failed to write generation error", e);
+            } finally {
+                asyncContext.complete();
+            }
+        }
+
+        /**
+         * Records the outcome once; returns false if the request was already finished.
+         */
+        private boolean finish(String outcome) {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            if (requestId != null) {
+                active.remove(requestId, cancellation);
+            }
+            span.end();
+            inFlight.decrementAndGet();
+            sample.stop(RagMetrics.timer("rag.inference.request", "outcome", outcome));
+            return true;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            cancellation.cancel();
+            fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Request deadline exceeded", "cancelled");
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // Client went away; stop decoding tokens nobody will read
+            cancellation.cancel();
+            finish("disconnected");
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
         }
     }
 }
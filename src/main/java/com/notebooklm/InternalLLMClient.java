@@ -3,39 +3,211 @@ package com.notebooklm;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Scope;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An internal client to communicate with the self-hosted LLM server running on Tomcat.
  */
 public class InternalLLMClient implements AutoCloseable {
     private static final String INTERNAL_GRANITE_URL = "http://localhost:8080/api/generate";
+    private static final long BATCH_POLL_INTERVAL_MS = 1000;
+    private static final long DEFAULT_BATCH_TIMEOUT_MS = TimeUnit.HOURS.toMillis(1);
+    // Cancels are small requests to a local server; do not let one hold up shutdown
+    private static final int CANCEL_TIMEOUT_MS = 2000;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final CloseableHttpClient httpClient;
+    private final String generateUrl;
+    private final HttpTransport transport;
+    private final boolean ownsTransport;
+    // Threads still delivering a cancel; close() waits for them before the transport goes away
+    private final Set<Thread> pendingCancels = ConcurrentHashMap.newKeySet();
 
     public InternalLLMClient() {
-        this.httpClient = HttpClients.createDefault();
+        this(new HttpTransport(new HttpTransport.Settings()), INTERNAL_GRANITE_URL, true);
+    }
+
+    /**
+     * Creates a client that sends requests over a shared pooled transport.
+     * The transport is not closed when this client is closed.
+     */
+    public InternalLLMClient(HttpTransport transport) {
+        this(transport, INTERNAL_GRANITE_URL, false);
+    }
+
+    /**
+     * Creates a client for a generation endpoint at a non-default URL.
+     */
+    public InternalLLMClient(HttpTransport transport, String generateUrl) {
+        this(transport, generateUrl, false);
+    }
+
+    private InternalLLMClient(HttpTransport transport, String generateUrl, boolean ownsTransport) {
+        this.generateUrl = generateUrl;
+        this.transport = transport;
+        this.ownsTransport = ownsTransport;
+        this.httpClient = transport.getHttpClient();
     }
 
     /**
      * Generates a text response from the full prompt.
      */
     public String generateTextResponse(String fullPrompt) throws Exception {
-        HttpPost request = new HttpPost(INTERNAL_GRANITE_URL);
+        return generateTextResponse(fullPrompt, new CancellationToken());
+    }
+
+    /**
+     * Generates a text response; cancelling the token aborts the HTTP call and asks
+     * the server to stop decoding so it does not keep generating tokens nobody reads.
+     *
+     * @throws CancellationException if the token was cancelled
+     */
+    public String generateTextResponse(String fullPrompt, CancellationToken cancellation) throws Exception {
+        Span span = RagTracing.tracer().spanBuilder("llm.client.generate")
+            .setSpanKind(SpanKind.CLIENT)
+            .setAttribute("llm.prompt.chars", fullPrompt.length())
+            .startSpan();
+        try (Scope scope = span.makeCurrent()) {
+            ObjectNode requestBody = objectMapper.createObjectNode();
+            requestBody.put("prompt", fullPrompt);
+            return postGenerate(requestBody, cancellation);
+        } catch (Exception e) {
+            RagTracing.recordError(span, e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Generates a response constrained to JSON matching the schema. The server decodes
+     * under a grammar compiled from the schema, so the result always parses.
+     */
+    public JsonNode generateStructuredResponse(String fullPrompt, JsonNode schema,
+                                               CancellationToken cancellation) throws Exception {
+        Span span = RagTracing.tracer().spanBuilder("llm.client.generate")
+            .setSpanKind(SpanKind.CLIENT)
+            .setAttribute("llm.prompt.chars", fullPrompt.length())
+            .setAttribute("llm.constrained", true)
+            .startSpan();
+        try (Scope scope = span.makeCurrent()) {
+            ObjectNode requestBody = objectMapper.createObjectNode();
+            requestBody.put("prompt", fullPrompt);
+            requestBody.set("schema", schema);
+            return objectMapper.readTree(postGenerate(requestBody, cancellation));
+        } catch (Exception e) {
+            RagTracing.recordError(span, e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Generates a response to a question over a fixed, named context (a notebook). The
+     * server reuses a persisted KV snapshot of the context when it has one, so repeated
+     * questions against the same notebook skip re-reading the context.
+     */
+    public String generateWithContext(String contextId, String context, String question,
+                                      CancellationToken cancellation) throws Exception {
+        return generateWithContext(contextId, context, question, null, cancellation);
+    }
+
+    /**
+     * Generates over a named context with the notebook's LoRA adapter applied on the
+     * server; a null adapter uses the base model.
+     */
+    public String generateWithContext(String contextId, String context, String question, String adapter,
+                                      CancellationToken cancellation) throws Exception {
+        Span span = RagTracing.tracer().spanBuilder("llm.client.generate")
+            .setSpanKind(SpanKind.CLIENT)
+            .setAttribute("llm.prompt.chars", context.length() + question.length())
+            .setAttribute("llm.context.id", contextId)
+            .startSpan();
+        try (Scope scope = span.makeCurrent()) {
+            ObjectNode requestBody = objectMapper.createObjectNode();
+            requestBody.put("prompt", question);
+            requestBody.put("context_id", contextId);
+            requestBody.put("context", context);
+            if (adapter != null) {
+                requestBody.put("adapter", adapter);
+            }
+            return postGenerate(requestBody, cancellation);
+        } catch (Exception e) {
+            RagTracing.recordError(span, e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
 
+    /**
+     * Asks the server to prefill a named context and store its KV snapshot ahead of the
+     * first question.
+     *
+     * @return true if the server stored a snapshot, false if snapshots are disabled there
+     */
+    public boolean precomputeContext(String contextId, String context) throws Exception {
+        HttpPost request = new HttpPost(generateUrl.substring(0, generateUrl.lastIndexOf('/')) + "/contexts");
         ObjectNode requestBody = objectMapper.createObjectNode();
-        requestBody.put("prompt", fullPrompt);
+        requestBody.put("context_id", contextId);
+        requestBody.put("context", context);
+        request.setEntity(new StringEntity(objectMapper.writeValueAsString(requestBody), "UTF-8"));
+        request.setHeader("Content-type", "application/json");
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            String responseBody = EntityUtils.toString(response.getEntity());
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                throw new IOException("LLM server failed to precompute context: " + statusCode + " - " + responseBody);
+            }
+            return objectMapper.readTree(responseBody).path("stored").asBoolean();
+        }
+    }
+
+    private String postGenerate(ObjectNode requestBody, CancellationToken cancellation) throws Exception {
+        HttpPost request = new HttpPost(generateUrl);
+        RagTracing.inject(request);
+        String requestId = UUID.randomUUID().toString();
+        requestBody.put("request_id", requestId);
 
         StringEntity entity = new StringEntity(objectMapper.writeValueAsString(requestBody), "UTF-8");
         request.setEntity(entity);
         request.setHeader("Content-type", "application/json");
 
+        Runnable onCancel = () -> {
+            request.abort();
+            // Off the cancelling thread, which may be the Swing event thread
+            Thread sender = Thread.ofVirtual().unstarted(() -> {
+                try {
+                    sendCancel(generateUrl + "?id=" + URLEncoder.encode(requestId, StandardCharsets.UTF_8));
+                } finally {
+                    pendingCancels.remove(Thread.currentThread());
+                }
+            });
+            pendingCancels.add(sender);
+            sender.start();
+        };
+        cancellation.onCancel(onCancel);
         try (CloseableHttpResponse response = httpClient.execute(request)) {
             String responseBody = EntityUtils.toString(response.getEntity());
             int statusCode = response.getStatusLine().getStatusCode();
@@ -49,11 +221,110 @@ public class InternalLLMClient implements AutoCloseable {
                 throw new Exception("LLM Error: " + node.get("error").asText());
             }
             return node.get("response").asText();
+        } catch (IOException e) {
+            if (cancellation.isCancelled()) {
+                throw new CancellationException("Generation cancelled");
+            }
+            throw e;
+        } finally {
+            cancellation.removeCallback(onCancel);
+        }
+    }
+
+    /**
+     * Generates responses for many prompts through the batch endpoint, polling the job
+     * until every prompt has finished or an hour has passed. Entries for prompts that failed are null.
+     */
+    public List<String> generateBatch(List<String> prompts) throws Exception {
+        return generateBatch(prompts, CancellationToken.withTimeout(DEFAULT_BATCH_TIMEOUT_MS));
+    }
+
+    /**
+     * Generates responses for many prompts through the batch endpoint. Polling stops when
+     * the token is cancelled or its deadline passes; the server is then asked to cancel the
+     * rest of the job and a CancellationException is thrown.
+     */
+    public List<String> generateBatch(List<String> prompts, CancellationToken cancellation) throws Exception {
+        HttpPost request = new HttpPost(generateUrl + "/batch");
+        ObjectNode requestBody = objectMapper.createObjectNode();
+        requestBody.putArray("prompts").addAll(prompts.stream().map(objectMapper.getNodeFactory()::textNode).toList());
+        request.setEntity(new StringEntity(objectMapper.writeValueAsString(requestBody), "UTF-8"));
+        request.setHeader("Content-type", "application/json");
+
+        String jobId;
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            String responseBody = EntityUtils.toString(response.getEntity());
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != 202) {
+                throw new IOException("LLM server rejected batch: " + statusCode + " - " + responseBody);
+            }
+            jobId = objectMapper.readTree(responseBody).get("job_id").asText();
+        }
+
+        String statusUrl = generateUrl + "/batch?id=" + URLEncoder.encode(jobId, StandardCharsets.UTF_8);
+        while (true) {
+            Thread.sleep(BATCH_POLL_INTERVAL_MS);
+            if (cancellation.isCancelled()) {
+                sendCancel(statusUrl);
+                cancellation.throwIfCancelled();
+            }
+            try (CloseableHttpResponse response = httpClient.execute(new HttpGet(statusUrl))) {
+                String responseBody = EntityUtils.toString(response.getEntity());
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode != 200) {
+                    throw new IOException("Batch job " + jobId + " status failed: " + statusCode + " - " + responseBody);
+                }
+                JsonNode node = objectMapper.readTree(responseBody);
+                if (!"completed".equals(node.path("status").asText())) {
+                    continue;
+                }
+                List<String> results = new ArrayList<>(prompts.size());
+                for (int i = 0; i < prompts.size(); i++) {
+                    results.add(null);
+                }
+                for (JsonNode result : node.path("results")) {
+                    if (result.hasNonNull("response")) {
+                        results.set(result.get("index").asInt(), result.get("response").asText());
+                    }
+                }
+                return results;
+            }
         }
     }
 
+    private void sendCancel(String cancelUrl) {
+        HttpDelete request = new HttpDelete(cancelUrl);
+        request.setConfig(RequestConfig.custom()
+            .setConnectTimeout(CANCEL_TIMEOUT_MS)
+            .setSocketTimeout(CANCEL_TIMEOUT_MS)
+            .setConnectionRequestTimeout(CANCEL_TIMEOUT_MS)
+            .build());
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            EntityUtils.consume(response.getEntity());
+        } catch (IOException e) {
+            // Best effort; the server's deadline still bounds the generation
+        }
+    }
+
+    /**
+     * Waits briefly for cancels still being sent, so cancelling a generation right before
+     * shutdown reaches the server before the transport or the server is closed.
+     */
     @Override
     public void close() throws IOException {
-        httpClient.close();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CANCEL_TIMEOUT_MS);
+        for (Thread sender : pendingCancels) {
+            try {
+                if (!sender.join(Duration.ofNanos(Math.max(0L, deadline - System.nanoTime())))) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (ownsTransport) {
+            transport.close();
+        }
     }
 }
@@ -0,0 +1,176 @@
+package com.notebooklm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk store of model KV-cache snapshots for named, frequently used contexts
+ * ("notebooks"), as produced by llama_state_seq_save_file. A snapshot is only reused
+ * when both the context text and the model file match what it was built from; it is
+ * memory-mapped on first use so restoring a notebook is a page-cache read, not a prefill.
+ */
+public class KvSnapshotStore {
+    private static final Logger log = LoggerFactory.getLogger(KvSnapshotStore.class);
+
+    private final Path directory;
+    private final String modelFingerprint;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Snapshot> mapped = new ConcurrentHashMap<>();
+
+    public KvSnapshotStore(Path directory, String modelPath) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.modelFingerprint = fingerprint(modelPath);
+    }
+
+    /**
+     * Creates a store from rag.config.kvSnapshots.* properties, or returns null when disabled.
+     *
+     * @param modelPath GGUF file of the model the snapshots are built with
+     */
+    public static KvSnapshotStore fromConfig(Properties config, String modelPath) throws IOException {
+        if (!Boolean.parseBoolean(config.getProperty("rag.config.kvSnapshots.enabled", "false"))) {
+            return null;
+        }
+        return new KvSnapshotStore(
+            Paths.get(config.getProperty("rag.config.kvSnapshots.dir", "kv-snapshots")), modelPath);
+    }
+
+    /**
+     * Returns the mapped snapshot for the named context, or null if there is none or it
+     * was built from different context text or a different model.
+     */
+    public Snapshot find(String name, String contextHash) {
+        Snapshot snapshot = mapped.get(name);
+        if (snapshot != null && snapshot.contextHash.equals(contextHash)) {
+            return snapshot;
+        }
+
+        Path stateFile = stateFile(name);
+        Path metaFile = metaFile(name);
+        if (!Files.isRegularFile(stateFile) || !Files.isRegularFile(metaFile)) {
+            return null;
+        }
+        try {
+            JsonNode meta = objectMapper.readTree(metaFile.toFile());
+            if (!contextHash.equals(meta.path("contextHash").asText())
+                    || !modelFingerprint.equals(meta.path("model").asText())) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(stateFile, StandardOpenOption.READ)) {
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                snapshot = new Snapshot(contextHash, meta.path("tokens").asInt(), data);
+            }
+            mapped.put(name, snapshot);
+            return snapshot;
+        } catch (IOException e) {
+            log.warn("Failed to open KV snapshot {}", name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a temporary file for the native side to write a new snapshot into.
+     */
+    public Path newTempFile(String name) throws IOException {
+        return Files.createTempFile(directory, safeName(name), ".tmp");
+    }
+
+    /**
+     * Publishes a snapshot written to tempFile. Empty files are discarded.
+     *
+     * @return true if the snapshot was stored
+     */
+    public boolean commit(String name, String contextHash, int tokenCount, Path tempFile) throws IOException {
+        if (!Files.isRegularFile(tempFile) || Files.size(tempFile) == 0) {
+            Files.deleteIfExists(tempFile);
+            return false;
+        }
+        ObjectNode meta = objectMapper.createObjectNode();
+        meta.put("name", name);
+        meta.put("contextHash", contextHash);
+        meta.put("model", modelFingerprint);
+        meta.put("tokens", tokenCount);
+        meta.put("createdAt", System.currentTimeMillis());
+
+        // Drop any stale mapping and metadata first so a concurrent reader never pairs
+        // new state with old metadata
+        mapped.remove(name);
+        Files.deleteIfExists(metaFile(name));
+        Files.move(tempFile, stateFile(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.writeString(metaFile(name), objectMapper.writeValueAsString(meta));
+        log.info("Stored KV snapshot {} ({} tokens, {} bytes)", name, tokenCount, Files.size(stateFile(name)));
+        return true;
+    }
+
+    /**
+     * Hashes context text so a snapshot is never restored for edited content.
+     */
+    public static String hash(String context) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(context.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Path stateFile(String name) {
+        return directory.resolve(safeName(name) + ".kv");
+    }
+
+    private Path metaFile(String name) {
+        return directory.resolve(safeName(name) + ".json");
+    }
+
+    private static String safeName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * Identifies the model file so snapshots from another model or quantization are ignored.
+     */
+    private static String fingerprint(String modelPath) throws IOException {
+        if (modelPath == null) {
+            return "unknown";
+        }
+        Path path = Paths.get(modelPath);
+        if (!Files.exists(path)) {
+            return path.getFileName().toString();
+        }
+        return path.getFileName() + ":" + Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+    }
+
+    public static class Snapshot {
+        private final String contextHash;
+        private final int tokenCount;
+        private final MappedByteBuffer data;
+
+        Snapshot(String contextHash, int tokenCount, MappedByteBuffer data) {
+            this.contextHash = contextHash;
+            this.tokenCount = tokenCount;
+            this.data = data;
+        }
+
+        public int getTokenCount() { return tokenCount; }
+        public MappedByteBuffer getData() { return data; }
+    }
+}
@@ -1,29 +1,162 @@
 package com.notebooklm;
 
 import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardVirtualThreadExecutor;
 import org.apache.catalina.startup.Tomcat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class LLMServer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(LLMServer.class);
+
     private final Tomcat tomcat;
-    private final GraniteModelWrapper modelWrapper;
+    private final ModelRegistry models;
+    private final GraniteModelWrapper modelWrapper; // Default chat model, resident for the server's lifetime
+    private final AdmissionController admission;
+    // Completed once the model has been warmed up and the server can take real traffic
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
 
     public LLMServer(String modelPath) throws Exception {
-        this.modelWrapper = new GraniteModelWrapper(modelPath); // Load the model
+        this(modelPath, false, new AdmissionController(new AdmissionController.Settings()));
+    }
+
+    /**
+     * Creates a server configured from rag.config.* properties.
+     */
+    public LLMServer(Properties config) throws Exception {
+        this(ModelRegistry.fromConfig(config),
+            RagExecutors.virtualThreadsEnabled(config),
+            AdmissionController.fromConfig(config));
+    }
+
+    /**
+     * @param virtualThreads run the connector's request processing on virtual threads
+     *                       instead of Tomcat's platform-thread pool
+     * @param admission      limits concurrent generations and sheds excess load
+     */
+    public LLMServer(String modelPath, boolean virtualThreads, AdmissionController admission) throws Exception {
+        this(new GraniteModelWrapper(modelPath), virtualThreads, admission); // Load the model
+    }
+
+    /**
+     * Serves an already loaded model; the server takes ownership and releases it on close.
+     */
+    public LLMServer(GraniteModelWrapper modelWrapper, boolean virtualThreads, AdmissionController admission) throws Exception {
+        this(ModelRegistry.of(modelWrapper), virtualThreads, admission);
+    }
+
+    /**
+     * Serves the models of a registry; generation requests pick a chat model by name and
+     * default to the registry's default chat model. The server closes the registry and the
+     * admission controller.
+     */
+    public LLMServer(ModelRegistry models, boolean virtualThreads, AdmissionController admission) throws Exception {
+        this.models = models;
+        this.modelWrapper = models.getDefaultChatModel();
+        this.admission = admission;
         this.tomcat = new Tomcat();
         tomcat.setPort(8080); // Use a standard local port
         tomcat.getConnector(); // Required for Tomcat 10+
 
+        if (virtualThreads) {
+            // Requests parked on the model or downstream I/O no longer hold a platform thread
+            StandardVirtualThreadExecutor executor = new StandardVirtualThreadExecutor();
+            executor.setName("llmVirtualThreads");
+            executor.setNamePrefix("llm-vt-");
+            tomcat.getService().addExecutor(executor);
+            tomcat.getConnector().getProtocolHandler().setExecutor(executor);
+        }
+
         Context ctx = tomcat.addContext("", new File(".").getAbsolutePath());
 
         // Pass the model wrapper instance to the servlet
-        InferenceServlet servlet = new InferenceServlet(modelWrapper);
-        Tomcat.addServlet(ctx, "inferenceServlet", servlet);
+        InferenceServlet servlet = new InferenceServlet(models, admission);
+        Wrapper inferenceWrapper = Tomcat.addServlet(ctx, "inferenceServlet", servlet);
+        inferenceWrapper.setAsyncSupported(true); // Generation completes off the container thread
         ctx.addServletMappingDecoded("/api/generate", "inferenceServlet");
+        
+        // Offline batch jobs share the admission limits, queued behind interactive requests
+        Tomcat.addServlet(ctx, "batchInferenceServlet", new BatchInferenceServlet(modelWrapper, admission));
+        ctx.addServletMappingDecoded("/api/generate/batch", "batchInferenceServlet");
+        
+        // Notebook contexts prefilled ahead of their first question (KV snapshots of the default chat model)
+        Tomcat.addServlet(ctx, "contextServlet", new ContextServlet(modelWrapper, admission));
+        ctx.addServletMappingDecoded("/api/contexts", "contextServlet");
+        
+        // Runtime LoRA adapter management over the default chat model's base weights
+        Tomcat.addServlet(ctx, "adapterServlet", new AdapterServlet(modelWrapper.getAdapters()));
+        ctx.addServletMappingDecoded("/api/adapters", "adapterServlet");
+        
+        // Prometheus scrape endpoint for pipeline metrics
+        Tomcat.addServlet(ctx, "metricsServlet", new MetricsServlet());
+        ctx.addServletMappingDecoded("/metrics", "metricsServlet");
+        
+        // Readiness probe; reports 503 until warm-up has finished, and for good if it failed
+        Tomcat.addServlet(ctx, "healthServlet", new HealthServlet(this::isReady, this::isFailed));
+        ctx.addServletMappingDecoded("/health/ready", "healthServlet");
 
-        System.out.println("🚀 Starting embedded Tomcat server for LLM inference...");
+        log.info("🚀 Starting embedded Tomcat server for LLM inference...");
         tomcat.start();
-        System.out.println("✓ LLM Server ready at http://localhost:8080");
+        log.info("✓ LLM Server listening at http://localhost:8080 (metrics at /metrics)");
+
+        // Warm up in the background so callers can initialize other components meanwhile
+        Thread.ofPlatform().name("llm-warmup").daemon(true).start(() -> {
+            try {
+                modelWrapper.warmUp();
+                ready.complete(null);
+                log.info("✓ LLM Server ready");
+            } catch (Exception e) {
+                // A model that cannot finish a short generation should not take traffic
+                log.error("Model warm-up failed; the server will not report ready", e);
+                ready.completeExceptionally(e);
+            }
+        });
+    }
+
+    public boolean isReady() {
+        return ready.isDone() && !ready.isCompletedExceptionally();
+    }
+
+    /**
+     * Returns true if warm-up failed, in which case the server never becomes ready.
+     */
+    public boolean isFailed() {
+        return ready.isCompletedExceptionally();
+    }
+
+    /**
+     * Blocks until the model is loaded and warmed up.
+     *
+     * @throws TimeoutException if the server is not ready within the timeout
+     * @throws IllegalStateException if warm-up failed
+     */
+    public void awaitReady(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        try {
+            ready.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("LLM server failed to become ready", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the default chat model.
+     */
+    public GraniteModelWrapper getModelWrapper() {
+        return modelWrapper;
+    }
+
+    /**
+     * Returns the registry of all configured models, for embedding and reranking by role.
+     */
+    public ModelRegistry getModels() {
+        return models;
     }
 
     public void await() {
@@ -32,10 +165,11 @@ public class LLMServer implements AutoCloseable {
 
     @Override
     public void close() throws Exception {
-        System.out.println("Shutting down LLM Server...");
-        modelWrapper.close(); // Release model from memory
+        log.info("Shutting down LLM Server...");
+        models.close(); // Release every resident model from memory
         tomcat.stop();
         tomcat.destroy();
-        System.out.println("✓ LLM Server stopped.");
+        admission.close();
+        log.info("✓ LLM Server stopped.");
     }
 }
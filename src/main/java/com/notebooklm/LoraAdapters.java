@@ -0,0 +1,315 @@
+package com.notebooklm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LoRA adapters loaded on top of the base model at runtime (llama.cpp llama-adapter).
+ * Each adapter is a few tens of megabytes and shares the base weights, so a tenant gets
+ * domain-tuned behavior without a separate server loading the full model.
+ *
+ * llama.cpp applies adapters to the whole context rather than to one sequence, so
+ * generations using the same adapter run together and a switch to another adapter waits
+ * for them to drain. Requests already waiting for a switch hold back new arrivals for the
+ * current adapter, so a busy adapter cannot starve the others.
+ */
+public class LoraAdapters {
+    private static final Logger log = LoggerFactory.getLogger(LoraAdapters.class);
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long modelHandle;
+    private final Path adapterDir;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, Adapter> loaded = new TreeMap<>();
+    // Adapter applied to the context; null means the base model alone
+    private String active;
+    private int activeGenerations;
+    // Waiting generations by the adapter they need (null key for the base model)
+    private final Map<String, Integer> waiting = new HashMap<>();
+    private int waitingTotal;
+
+    /**
+     * @param adapterDir directory adapters may be loaded from at runtime, or null to
+     *                   disable runtime loading and only load adapters from configuration
+     */
+    public LoraAdapters(long modelHandle, Path adapterDir) {
+        this.modelHandle = modelHandle;
+        this.adapterDir = adapterDir != null ? adapterDir.toAbsolutePath().normalize() : null;
+    }
+
+    /**
+     * Loads the adapters listed in rag.config.lora.adapters as name=file[:scale] entries
+     * separated by commas; relative files resolve against rag.config.lora.dir. Configuration
+     * is trusted, so absolute files may lie outside the adapter directory.
+     */
+    public void loadFromConfig(Properties config) {
+        String entries = config.getProperty("rag.config.lora.adapters", "");
+        for (String entry : entries.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] nameAndFile = entry.trim().split("=", 2);
+            if (nameAndFile.length != 2) {
+                log.warn("Ignoring malformed LoRA adapter entry '{}'", entry);
+                continue;
+            }
+            String file = nameAndFile[1];
+            float scale = 1.0f;
+            int colon = file.lastIndexOf(':');
+            if (colon > 0 && file.substring(colon + 1).matches("[0-9.]+")) {
+                scale = Float.parseFloat(file.substring(colon + 1));
+                file = file.substring(0, colon);
+            }
+            try {
+                load(nameAndFile[0].trim(), resolveConfigured(file), scale);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to load LoRA adapter '{}'", nameAndFile[0], e);
+            }
+        }
+    }
+
+    /**
+     * Loads an adapter under a new name at runtime, from the adapter directory only.
+     *
+     * @param file  GGUF adapter file; relative paths resolve against the adapter directory
+     * @param scale strength the adapter is applied with
+     * @throws IllegalArgumentException if no adapter directory is configured or the file
+     *         is outside it
+     * @throws IllegalStateException if an adapter with that name is already loaded
+     */
+    public void load(String name, String file, float scale) throws IOException {
+        load(name, resolve(file), scale);
+    }
+
+    private void load(String name, Path path, float scale) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            throw new IOException("LoRA adapter file not found: " + path);
+        }
+        lock.lock();
+        try {
+            if (loaded.containsKey(name)) {
+                throw new IllegalStateException("LoRA adapter '" + name + "' is already loaded");
+            }
+            // NATIVE JNI CALL: load the adapter against the base model (llama_adapter_lora_init);
+            // only the low-rank A/B tensors are allocated, the base weights are shared
+            // long handle = NativeLibrary.loadLoraAdapter(modelHandle, path.toString());
+            long handle = 4L; // Placeholder
+            if (handle == 0) {
+                throw new IOException("Failed to load LoRA adapter " + path);
+            }
+            loaded.put(name, new Adapter(name, path.toString(), scale, handle));
+        } finally {
+            lock.unlock();
+        }
+        log.info("✓ Loaded LoRA adapter '{}' from {} (scale {})", name, path, scale);
+    }
+
+    /**
+     * Unloads an adapter once no generation is using it.
+     *
+     * @return false if no adapter has that name
+     */
+    public boolean unload(String name) throws InterruptedException {
+        lock.lock();
+        try {
+            Adapter adapter = loaded.remove(name);
+            if (adapter == null) {
+                return false;
+            }
+            // New requests for it now fail; wait for the running ones
+            while (name.equals(active) && activeGenerations > 0) {
+                changed.await();
+            }
+            if (name.equals(active)) {
+                // NATIVE JNI CALL: detach all adapters from the context (llama_clear_adapter_lora)
+                // NativeLibrary.clearLoraAdapters(modelHandle);
+                active = null;
+            }
+            // NATIVE JNI CALL: free the adapter tensors (llama_adapter_lora_free)
+            // NativeLibrary.freeLoraAdapter(adapter.handle);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        log.info("✓ Unloaded LoRA adapter '{}'", name);
+        return true;
+    }
+
+    public boolean contains(String name) {
+        lock.lock();
+        try {
+            return loaded.containsKey(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Adapter> list() {
+        lock.lock();
+        try {
+            return new ArrayList<>(loaded.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLoadedCount() {
+        lock.lock();
+        try {
+            return loaded.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the named adapter (or the base model, for null) is applied to the
+     * context and registers a generation using it. The lease must be closed when the
+     * generation finishes.
+     *
+     * @throws IllegalArgumentException if the adapter is not loaded
+     * @throws CancellationException if the token is cancelled while waiting
+     */
+    public Lease acquire(String name, CancellationToken cancellation) {
+        lock.lock();
+        try {
+            boolean counted = false;
+            try {
+                while (true) {
+                    if (name != null && !loaded.containsKey(name)) {
+                        throw new IllegalArgumentException("Unknown LoRA adapter '" + name + "'");
+                    }
+                    boolean sameAdapter = name == null ? active == null : name.equals(active);
+                    // Joining the active adapter must not starve a generation waiting to switch away
+                    // from it; waiters for the active adapter (this one included) do not count
+                    if (sameAdapter && waitingTotal == waiting.getOrDefault(active, 0)) {
+                        break;
+                    }
+                    if (!sameAdapter && activeGenerations == 0) {
+                        apply(name);
+                        RagMetrics.counter("rag.llm.lora.switches").increment();
+                        break;
+                    }
+                    if (!counted) {
+                        waiting.merge(name, 1, Integer::sum);
+                        waitingTotal++;
+                        counted = true;
+                    }
+                    cancellation.throwIfCancelled();
+                    changed.awaitNanos(WAIT_SLICE_NANOS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted waiting for LoRA adapter");
+            } finally {
+                if (counted) {
+                    waiting.merge(name, -1, (count, delta) -> count + delta == 0 ? null : count + delta);
+                    waitingTotal--;
+                }
+            }
+            activeGenerations++;
+            return new Lease();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies an adapter to the context in place of the current one; called with the
+     * lock held and no generation running.
+     */
+    private void apply(String name) {
+        // NATIVE JNI CALL: detach the current adapter and attach the new one with its scale
+        // (llama_clear_adapter_lora, llama_set_adapter_lora)
+        // NativeLibrary.clearLoraAdapters(modelHandle);
+        // if (name != null) NativeLibrary.setLoraAdapter(modelHandle, loaded.get(name).handle, loaded.get(name).scale);
+        active = name;
+        log.debug("Applied LoRA adapter {}", name != null ? name : "(base model)");
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            activeGenerations--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resolves a runtime adapter file, refusing paths outside the adapter directory.
+     */
+    private Path resolve(String file) {
+        if (adapterDir == null) {
+            throw new IllegalArgumentException("Runtime LoRA loading is disabled; set rag.config.lora.dir to allow it");
+        }
+        Path resolved = adapterDir.resolve(Paths.get(file)).normalize();
+        if (!resolved.startsWith(adapterDir)) {
+            throw new IllegalArgumentException("LoRA adapter must be inside " + adapterDir);
+        }
+        return resolved;
+    }
+
+    /**
+     * Resolves an adapter file from configuration, where absolute paths are allowed.
+     */
+    private Path resolveConfigured(String file) {
+        Path path = Paths.get(file);
+        if (path.isAbsolute()) {
+            return path;
+        }
+        if (adapterDir == null) {
+            throw new IllegalArgumentException("No LoRA adapter directory configured for " + file);
+        }
+        return resolve(file);
+    }
+
+    /**
+     * A generation's use of the applied adapter.
+     */
+    public class Lease implements AutoCloseable {
+        private boolean released;
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release();
+            }
+        }
+    }
+
+    public static class Adapter {
+        private final String name;
+        private final String path;
+        private final float scale;
+        private final long handle;
+
+        Adapter(String name, String path, float scale, long handle) {
+            this.name = name;
+            this.path = path;
+            this.scale = scale;
+            this.handle = handle;
+        }
+
+        public String getName() { return name; }
+        public String getPath() { return path; }
+        public float getScale() { return scale; }
+    }
+}
@@ -0,0 +1,405 @@
+package com.notebooklm;
+
+import io.micrometer.core.instrument.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Named GGUF models by role: chat models generate, embed models produce vectors for
+ * indexing and retrieval, rerank models score candidates and draft models speed up their
+ * chat model's decoding. Models load on first use and are unloaded least recently used
+ * first to keep resident models within a memory budget. The default chat model is loaded
+ * at start-up and never unloaded; a model is also kept while any lease on it is open.
+ */
+public class ModelRegistry implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ModelRegistry.class);
+
+    public enum Role {
+        CHAT, EMBED, RERANK, DRAFT;
+
+        public static Role parse(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private final Properties config;
+    private final long memoryBudgetBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition loaded = lock.newCondition();
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<Role, String> defaults = new LinkedHashMap<>();
+    private long useClock;
+    private final Gauge residentBytesGauge;
+
+    /**
+     * @param memoryBudgetBytes resident model memory to stay within; 0 for no limit
+     */
+    private ModelRegistry(Properties config, long memoryBudgetBytes) {
+        this.config = config;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.residentBytesGauge = RagMetrics.gauge("rag.models.resident.bytes", this::getResidentBytes);
+    }
+
+    /**
+     * Creates a registry from rag.config.models: a comma-separated list of names, each with
+     * rag.config.models.&lt;name&gt;.role and .path. Without that list the single-model keys
+     * (graniteModelPath, graniteDraftModelPath, rerankerModelPath) are used. The default chat
+     * model is loaded before this returns.
+     */
+    public static ModelRegistry fromConfig(Properties config) throws IOException {
+        long budgetMb = Long.parseLong(config.getProperty("rag.config.models.memoryBudgetMb", "0"));
+        ModelRegistry registry = new ModelRegistry(config, budgetMb << 20);
+        String names = config.getProperty("rag.config.models", "");
+        if (names.isBlank()) {
+            registry.register("granite", Role.CHAT, config.getProperty("rag.config.graniteModelPath"));
+            String draftPath = config.getProperty("rag.config.graniteDraftModelPath", "");
+            if (!draftPath.isBlank()) {
+                registry.register("draft", Role.DRAFT, draftPath);
+            }
+            String rerankerPath = config.getProperty("rag.config.rerankerModelPath", "");
+            if (Boolean.parseBoolean(config.getProperty("rag.config.rerank.enabled", "false")) && !rerankerPath.isBlank()) {
+                registry.register("reranker", Role.RERANK, rerankerPath);
+            }
+        } else {
+            for (String name : names.split(",")) {
+                String key = "rag.config.models." + name.trim();
+                String path = config.getProperty(key + ".path", "");
+                if (path.isBlank()) {
+                    throw new IllegalArgumentException("Missing " + key + ".path");
+                }
+                registry.register(name.trim(), Role.parse(config.getProperty(key + ".role", "chat")), path);
+            }
+        }
+        if (!registry.defaults.containsKey(Role.CHAT)) {
+            throw new IllegalArgumentException("No chat model configured");
+        }
+        registry.loadDefaultChatModel();
+        return registry;
+    }
+
+    /**
+     * Creates a registry serving one already loaded chat model, which it takes ownership of.
+     */
+    public static ModelRegistry of(GraniteModelWrapper chatModel) {
+        ModelRegistry registry = new ModelRegistry(new Properties(), 0L);
+        registry.register(chatModel.getName(), Role.CHAT, null);
+        Entry entry = registry.entries.get(chatModel.getName());
+        entry.model = chatModel;
+        entry.pinned = true;
+        entry.residentBytes = chatModel.getMemoryUsage().getTotalBytes();
+        return registry;
+    }
+
+    private void register(String name, Role role, String path) {
+        if (entries.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate model name " + name);
+        }
+        entries.put(name, new Entry(name, role, path));
+        defaults.putIfAbsent(role, name);
+    }
+
+    private void loadDefaultChatModel() throws IOException {
+        Entry entry = entries.get(defaults.get(Role.CHAT));
+        entry.pinned = true;
+        try (Lease lease = acquire(Role.CHAT, entry.name)) {
+            GraniteModelWrapper model = lease.get(GraniteModelWrapper.class);
+            model.setSnapshotStore(KvSnapshotStore.fromConfig(config, entry.path));
+            model.getAdapters().loadFromConfig(config);
+        }
+    }
+
+    /**
+     * Returns the default chat model. It is never unloaded, so it may be held directly.
+     */
+    public GraniteModelWrapper getDefaultChatModel() {
+        lock.lock();
+        try {
+            return (GraniteModelWrapper) entries.get(defaults.get(Role.CHAT)).model;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the name of the role's default model, or null if none is registered.
+     */
+    public String getDefaultName(Role role) {
+        return defaults.get(role);
+    }
+
+    public boolean hasRole(Role role) {
+        return defaults.containsKey(role);
+    }
+
+    /**
+     * Returns true if a model with this name and role is registered.
+     */
+    public boolean contains(String name, Role role) {
+        Entry entry = entries.get(name);
+        return entry != null && entry.role == role;
+    }
+
+    /**
+     * Embeds text with the default embedding model, or the default chat model when no
+     * embedding model is configured.
+     */
+    public List<Float> embed(String text) {
+        Role role = hasRole(Role.EMBED) ? Role.EMBED : Role.CHAT;
+        try (Lease lease = acquire(role, null)) {
+            return lease.get(GraniteModelWrapper.class).generateEmbedding(text);
+        }
+    }
+
+    /**
+     * Returns the number of tokens the default chat model's tokenizer produces for the text.
+     */
+    public int countTokens(String text) {
+        return getDefaultChatModel().countTokens(text);
+    }
+
+    /**
+     * Reranks candidates with the default rerank model; returns null when none is configured.
+     */
+    public List<Reranker.ScoredChunk> rerank(String query, List<EnhancedDocumentProcessor.DocumentChunk> candidates, int topN) {
+        if (!hasRole(Role.RERANK)) {
+            return null;
+        }
+        try (Lease lease = acquire(Role.RERANK, null)) {
+            return lease.get(Reranker.class).rerank(query, candidates, topN);
+        }
+    }
+
+    /**
+     * Leases a model, loading it first if needed. The model stays resident until the
+     * lease is closed.
+     *
+     * @param name model name, or null for the role's default model
+     * @throws IllegalArgumentException if there is no such model for the role
+     */
+    public Lease acquire(Role role, String name) {
+        String resolved = name != null ? name : defaults.get(role);
+        Entry entry = resolved != null ? entries.get(resolved) : null;
+        if (entry == null || entry.role != role) {
+            throw new IllegalArgumentException("No " + role.name().toLowerCase() + " model named " + name);
+        }
+        if (role == Role.DRAFT) {
+            throw new IllegalArgumentException("Draft models are loaded with their chat model");
+        }
+
+        lock.lock();
+        try {
+            while (entry.loading) {
+                loaded.awaitUninterruptibly();
+            }
+            entry.leases++;
+            entry.lastUsed = ++useClock;
+            if (entry.model != null) {
+                return new Lease(entry);
+            }
+            entry.loading = true;
+            makeRoom(entry, fileSize(entry.path));
+        } finally {
+            lock.unlock();
+        }
+
+        // Load outside the lock so other models stay usable meanwhile
+        Closeable model = null;
+        try {
+            model = load(entry);
+        } finally {
+            lock.lock();
+            try {
+                entry.loading = false;
+                if (model != null) {
+                    entry.model = model;
+                    entry.residentBytes = memoryBytes(model, entry.path);
+                    RagMetrics.counter("rag.models.loads", "role", role.name().toLowerCase()).increment();
+                } else {
+                    entry.leases--;
+                }
+                loaded.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return new Lease(entry);
+    }
+
+    private Closeable load(Entry entry) {
+        long start = System.nanoTime();
+        Closeable model;
+        switch (entry.role) {
+            case CHAT -> {
+                GraniteModelWrapper.DecodingSettings decoding = GraniteModelWrapper.DecodingSettings.fromConfig(config);
+                String draft = defaults.get(Role.DRAFT);
+                if (draft != null) {
+                    decoding.withDraftModel(entries.get(draft).path);
+                }
+                model = new GraniteModelWrapper(entry.path, GraniteModelWrapper.ModelSettings.fromConfig(config), decoding);
+            }
+            case EMBED -> model = new GraniteModelWrapper(entry.path,
+                GraniteModelWrapper.ModelSettings.fromConfig(config).withContextSize(
+                    Integer.parseInt(config.getProperty("rag.config.models.embedContextSize", "512"))),
+                new GraniteModelWrapper.DecodingSettings());
+            case RERANK -> model = new Reranker(entry.path,
+                Integer.parseInt(config.getProperty("rag.config.rerank.batchSize", "16")));
+            default -> throw new IllegalArgumentException("Cannot load a " + entry.role + " model on its own");
+        }
+        log.info("✓ Loaded {} model '{}' in {} ms", entry.role.name().toLowerCase(), entry.name,
+            (System.nanoTime() - start) / 1_000_000);
+        return model;
+    }
+
+    /**
+     * Unloads idle models, least recently used first, until the incoming model fits the
+     * budget. Called with the lock held. If only leased or pinned models remain, the
+     * model is loaded over budget rather than blocking the caller.
+     */
+    private void makeRoom(Entry incoming, long incomingBytes) {
+        if (memoryBudgetBytes <= 0) {
+            return;
+        }
+        while (getResidentBytes() + incomingBytes > memoryBudgetBytes) {
+            Entry victim = null;
+            for (Entry entry : entries.values()) {
+                if (entry != incoming && entry.model != null && entry.leases == 0 && !entry.pinned
+                        && (victim == null || entry.lastUsed < victim.lastUsed)) {
+                    victim = entry;
+                }
+            }
+            if (victim == null) {
+                log.warn("Loading model '{}' exceeds the {} MB model memory budget; all resident models are in use",
+                    incoming.name, memoryBudgetBytes >> 20);
+                return;
+            }
+            unload(victim);
+        }
+    }
+
+    private void unload(Entry entry) {
+        try {
+            entry.model.close();
+        } catch (IOException e) {
+            log.warn("Failed to close model '{}'", entry.name, e);
+        }
+        entry.model = null;
+        entry.residentBytes = 0L;
+        RagMetrics.counter("rag.models.evictions", "role", entry.role.name().toLowerCase()).increment();
+        log.info("Unloaded {} model '{}' to stay within the memory budget", entry.role.name().toLowerCase(), entry.name);
+    }
+
+    public long getResidentBytes() {
+        lock.lock();
+        try {
+            long total = 0L;
+            for (Entry entry : entries.values()) {
+                total += entry.residentBytes;
+            }
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long memoryBytes(Closeable model, String path) {
+        if (model instanceof GraniteModelWrapper wrapper) {
+            return wrapper.getMemoryUsage().getTotalBytes();
+        }
+        return fileSize(path);
+    }
+
+    private static long fileSize(String path) {
+        try {
+            return path != null ? Files.size(Paths.get(path)) : 0L;
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Unloads every resident model.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            for (Entry entry : new ArrayList<>(entries.values())) {
+                if (entry.model != null) {
+                    try {
+                        entry.model.close();
+                    } catch (IOException e) {
+                        log.warn("Failed to close model '{}'", entry.name, e);
+                    }
+                    entry.model = null;
+                    entry.residentBytes = 0L;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        RagMetrics.registry().remove(residentBytesGauge);
+    }
+
+    /**
+     * Keeps a model resident while it is in use.
+     */
+    public class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean released;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public <T> T get(Class<T> type) {
+            return type.cast(entry.model);
+        }
+
+        public String getName() {
+            return entry.name;
+        }
+
+        @Override
+        public void close() {
+            if (released) {
+                return;
+            }
+            released = true;
+            lock.lock();
+            try {
+                entry.leases--;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String name;
+        private final Role role;
+        private final String path;
+        private boolean pinned;
+        private boolean loading;
+        private int leases;
+        private long lastUsed;
+        private long residentBytes;
+        private Closeable model;
+
+        Entry(String name, Role role, String path) {
+            this.name = name;
+            this.role = role;
+            this.path = path;
+        }
+    }
+}
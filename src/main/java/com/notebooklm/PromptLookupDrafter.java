@@ -0,0 +1,86 @@
+package com.notebooklm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Draft source for prompt-lookup speculative decoding.
+ * RAG answers quote the retrieved context heavily, so the tokens that followed the
+ * latest n-gram earlier in the prompt (or the answer so far) are a cheap, often correct
+ * guess for what comes next. The model verifies the draft in one batched decode and
+ * keeps the longest matching prefix, so output is identical to normal decoding.
+ * Mirrors llama.cpp's examples/lookup with an n-gram index instead of a linear scan.
+ */
+public class PromptLookupDrafter {
+    private final int minNgram;
+    private final int maxNgram;
+    private int[] tokens;
+    private int length;
+    // For each n from minNgram: hash of an n-gram -> position just after its most recent occurrence
+    private final List<Map<Long, Integer>> index;
+
+    public PromptLookupDrafter(int[] promptTokens, int minNgram, int maxNgram) {
+        if (minNgram < 1 || maxNgram < minNgram) {
+            throw new IllegalArgumentException("Invalid n-gram range " + minNgram + ".." + maxNgram);
+        }
+        this.minNgram = minNgram;
+        this.maxNgram = maxNgram;
+        this.tokens = new int[Math.max(16, promptTokens.length * 2)];
+        this.index = new ArrayList<>(maxNgram - minNgram + 1);
+        for (int n = minNgram; n <= maxNgram; n++) {
+            index.add(new HashMap<>());
+        }
+        for (int i = 0; i < promptTokens.length; i++) {
+            append(promptTokens[i]);
+        }
+    }
+
+    /**
+     * Proposes up to maxTokens tokens continuing the current sequence, trying the
+     * longest n-gram first. Returns an empty array when nothing matches.
+     */
+    public int[] draft(int maxTokens) {
+        for (int n = Math.min(maxNgram, length - 1); n >= minNgram; n--) {
+            // The current suffix is only indexed once its next token arrives, so any hit is earlier
+            Integer next = index.get(n - minNgram).get(hash(length - n, n));
+            if (next == null) {
+                continue;
+            }
+            int count = Math.min(maxTokens, length - next);
+            return Arrays.copyOfRange(tokens, next, next + count);
+        }
+        return new int[0];
+    }
+
+    /**
+     * Appends tokens accepted by the model (matched draft tokens plus the corrected one).
+     */
+    public void accept(int[] acceptedTokens) {
+        for (int token : acceptedTokens) {
+            append(token);
+        }
+    }
+
+    private void append(int token) {
+        if (length == tokens.length) {
+            tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        }
+        // Index the n-grams ending at the previous token: they are followed by this one.
+        // Hash collisions only cost a rejected draft, since the model verifies every token
+        for (int n = minNgram; n <= maxNgram && n <= length; n++) {
+            index.get(n - minNgram).put(hash(length - n, n), length);
+        }
+        tokens[length++] = token;
+    }
+
+    private long hash(int start, int n) {
+        long h = 1125899906842597L;
+        for (int i = start; i < start + n; i++) {
+            h = 31 * h + tokens[i];
+        }
+        return h;
+    }
+}
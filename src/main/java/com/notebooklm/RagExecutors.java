@@ -0,0 +1,34 @@
+package com.notebooklm;
+
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for the blocking orchestration work of the pipeline (indexing,
+ * Solr/CouchDB/LLM calls). With virtual threads enabled each task gets its own
+ * cheap virtual thread, so tasks parked on I/O do not tie up platform threads.
+ */
+public final class RagExecutors {
+
+    private RagExecutors() {
+    }
+
+    /**
+     * Reads rag.config.virtualThreads.enabled; off unless set.
+     */
+    public static boolean virtualThreadsEnabled(Properties config) {
+        return Boolean.parseBoolean(config.getProperty("rag.config.virtualThreads.enabled", "false"));
+    }
+
+    /**
+     * Creates a task executor: one virtual thread per task when enabled, otherwise
+     * a fixed pool of platform threads.
+     */
+    public static ExecutorService newTaskExecutor(String name, boolean virtualThreads, int platformThreads) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        }
+        return Executors.newFixedThreadPool(platformThreads, Thread.ofPlatform().name(name + "-", 0).daemon(true).factory());
+    }
+}
@@ -0,0 +1,89 @@
+package com.notebooklm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide metrics for the RAG pipeline, backed by a Prometheus registry.
+ * Components record into the shared registry; LLMServer exposes it on /metrics.
+ */
+public final class RagMetrics {
+    private static final PrometheusMeterRegistry REGISTRY = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    static {
+        new JvmMemoryMetrics().bindTo(REGISTRY);
+        new JvmThreadMetrics().bindTo(REGISTRY);
+    }
+
+    private RagMetrics() {
+    }
+
+    public static PrometheusMeterRegistry registry() {
+        return REGISTRY;
+    }
+
+    /**
+     * Returns a timer with p50/p95/p99 published, creating it on first use.
+     */
+    public static Timer timer(String name, String... tags) {
+        return Timer.builder(name)
+            .tags(tags)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(REGISTRY);
+    }
+
+    public static Counter counter(String name, String... tags) {
+        return Counter.builder(name).tags(tags).register(REGISTRY);
+    }
+
+    /**
+     * Registers a gauge sampling the supplied value, e.g. a queue depth. Components that
+     * can be closed while the process runs remove the returned gauge from registry().
+     */
+    public static Gauge gauge(String name, Supplier<Number> value, String... tags) {
+        return Gauge.builder(name, value).tags(tags).register(REGISTRY);
+    }
+
+    /**
+     * Records one speculative verification step: how many drafted tokens the model accepted.
+     */
+    public static void recordSpeculation(String mode, int draftedTokens, int acceptedTokens) {
+        counter("rag.llm.speculative.drafted.tokens", "mode", mode).increment(draftedTokens);
+        counter("rag.llm.speculative.accepted.tokens", "mode", mode).increment(acceptedTokens);
+        if (draftedTokens > 0) {
+            DistributionSummary.builder("rag.llm.speculative.acceptance.rate")
+                .tags("mode", mode)
+                .register(REGISTRY)
+                .record((double) acceptedTokens / draftedTokens);
+        }
+    }
+
+    /**
+     * Records one generation split into prompt processing (prefill) and token decoding.
+     */
+    public static void recordGeneration(int promptTokens, int completionTokens, long prefillNanos, long decodeNanos) {
+        timer("rag.llm.prefill").record(prefillNanos, TimeUnit.NANOSECONDS);
+        timer("rag.llm.decode").record(decodeNanos, TimeUnit.NANOSECONDS);
+        counter("rag.llm.prompt.tokens").increment(promptTokens);
+        counter("rag.llm.completion.tokens").increment(completionTokens);
+        if (prefillNanos > 0) {
+            DistributionSummary.builder("rag.llm.prefill.tokens.per.second")
+                .register(REGISTRY)
+                .record(promptTokens / (prefillNanos / 1e9));
+        }
+        if (decodeNanos > 0) {
+            DistributionSummary.builder("rag.llm.decode.tokens.per.second")
+                .register(REGISTRY)
+                .record(completionTokens / (decodeNanos / 1e9));
+        }
+    }
+}
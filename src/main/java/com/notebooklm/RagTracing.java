@@ -0,0 +1,136 @@
+package com.notebooklm;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapSetter;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import jakarta.servlet.http.HttpServletRequest;
+import org.apache.http.HttpRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide request tracing for the RAG pipeline.
+ * Tracing is a no-op until {@link #init(Properties)} enables it; spans are then exported
+ * as flat JSON lines to a local file. Trace context crosses the HTTP hop to the
+ * embedded LLM server via W3C traceparent headers.
+ */
+public final class RagTracing {
+    private static final Logger log = LoggerFactory.getLogger(RagTracing.class);
+    private static final String INSTRUMENTATION_NAME = "com.notebooklm";
+
+    private static final TextMapSetter<HttpRequest> HTTP_REQUEST_SETTER =
+        (request, key, value) -> request.setHeader(key, value);
+
+    private static final TextMapGetter<HttpServletRequest> SERVLET_REQUEST_GETTER = new TextMapGetter<>() {
+        @Override
+        public Iterable<String> keys(HttpServletRequest request) {
+            return Collections.list(request.getHeaderNames());
+        }
+
+        @Override
+        public String get(HttpServletRequest request, String key) {
+            return request != null ? request.getHeader(key) : null;
+        }
+    };
+
+    private static volatile OpenTelemetry openTelemetry = OpenTelemetry.noop();
+    private static volatile Tracer tracer = openTelemetry.getTracer(INSTRUMENTATION_NAME);
+    private static SdkTracerProvider tracerProvider;
+
+    private RagTracing() {
+    }
+
+    /**
+     * Enables tracing from rag.config.tracing.* properties. Safe to call more than once.
+     */
+    public static synchronized void init(Properties config) {
+        if (tracerProvider != null || !Boolean.parseBoolean(config.getProperty("rag.config.tracing.enabled", "false"))) {
+            return;
+        }
+        String file = config.getProperty("rag.config.tracing.file", "traces.jsonl");
+        double sampleRatio = Double.parseDouble(config.getProperty("rag.config.tracing.sampleRatio", "1.0"));
+
+        try {
+            tracerProvider = SdkTracerProvider.builder()
+                .setResource(Resource.getDefault().merge(Resource.create(
+                    Attributes.builder().put("service.name", "notebooklm-rag").build())))
+                .setSampler(Sampler.parentBased(Sampler.traceIdRatioBased(sampleRatio)))
+                .addSpanProcessor(BatchSpanProcessor.builder(new FileSpanExporter(Paths.get(file))).build())
+                .build();
+            openTelemetry = OpenTelemetrySdk.builder()
+                .setTracerProvider(tracerProvider)
+                .setPropagators(ContextPropagators.create(W3CTraceContextPropagator.getInstance()))
+                .build();
+            tracer = openTelemetry.getTracer(INSTRUMENTATION_NAME);
+            log.info("✓ Request tracing enabled, exporting spans to {}", file);
+        } catch (Exception e) {
+            log.warn("Failed to enable request tracing", e);
+        }
+    }
+
+    public static Tracer tracer() {
+        return tracer;
+    }
+
+    /**
+     * Adds trace context headers for the current span to an outgoing HTTP request.
+     */
+    public static void inject(HttpRequest request) {
+        openTelemetry.getPropagators().getTextMapPropagator().inject(Context.current(), request, HTTP_REQUEST_SETTER);
+    }
+
+    /**
+     * Returns the trace context carried by an incoming servlet request's headers.
+     */
+    public static Context extract(HttpServletRequest request) {
+        return openTelemetry.getPropagators().getTextMapPropagator().extract(Context.current(), request, SERVLET_REQUEST_GETTER);
+    }
+
+    /**
+     * Records a completed child span of the current span with explicit timestamps,
+     * for stages timed elsewhere (e.g. native prefill/decode).
+     */
+    public static void recordSpan(String name, long startEpochNanos, long endEpochNanos) {
+        tracer.spanBuilder(name)
+            .setStartTimestamp(startEpochNanos, TimeUnit.NANOSECONDS)
+            .startSpan()
+            .end(endEpochNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Flushes and stops span export.
+     */
+    public static synchronized void shutdown() {
+        if (tracerProvider != null) {
+            tracerProvider.close();
+            tracerProvider = null;
+            openTelemetry = OpenTelemetry.noop();
+            tracer = openTelemetry.getTracer(INSTRUMENTATION_NAME);
+        }
+    }
+
+    /**
+     * Marks a span as failed with the given exception.
+     */
+    public static void recordError(Span span, Throwable error) {
+        span.recordException(error);
+        span.setStatus(StatusCode.ERROR, error.getMessage());
+    }
+}
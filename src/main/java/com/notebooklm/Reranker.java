@@ -0,0 +1,147 @@
+package com.notebooklm;
+
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Scope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cross-encoder reranking between retrieval and prompt building.
+ * Retrieval returns a wide candidate set; a reranker GGUF (llama.cpp rank pooling)
+ * scores each (question, chunk) pair jointly and only the best few reach the prompt.
+ */
+public class Reranker implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(Reranker.class);
+    private static final Timer RERANK_TIMER = RagMetrics.timer("rag.rerank");
+
+    private final long modelHandle; // Represents a pointer to the reranker model in native memory
+    private final int batchSize;
+
+    public Reranker(String modelPath, int batchSize) {
+        this.batchSize = batchSize;
+        log.info("Loading reranker model from: {}", modelPath);
+        // NATIVE JNI CALL: load the reranker GGUF with an embeddings context using LLAMA_POOLING_TYPE_RANK
+        // this.modelHandle = NativeLibrary.loadRerankerModel(modelPath);
+        this.modelHandle = 1L; // Placeholder
+        if (modelHandle == 0) {
+            throw new RuntimeException("Failed to load reranker model at " + modelPath);
+        }
+        log.info("✓ Reranker model loaded successfully.");
+    }
+
+    /**
+     * Creates a reranker from rag.config.rerank.* properties, or returns null when disabled.
+     */
+    public static Reranker fromConfig(Properties config) {
+        String modelPath = config.getProperty("rag.config.rerankerModelPath", "");
+        if (!Boolean.parseBoolean(config.getProperty("rag.config.rerank.enabled", "false")) || modelPath.isBlank()) {
+            return null;
+        }
+        return new Reranker(modelPath, Integer.parseInt(config.getProperty("rag.config.rerank.batchSize", "16")));
+    }
+
+    /**
+     * Scores how well each document answers the query; higher is more relevant.
+     */
+    public float[] score(String query, List<String> documents) {
+        float[] scores = new float[documents.size()];
+        for (int start = 0; start < documents.size(); start += batchSize) {
+            int end = Math.min(start + batchSize, documents.size());
+            // NATIVE JNI CALL: put each "query</s><s>document" pair in its own sequence of one llama_batch
+            // and read the rank-pooled score per sequence (llama_get_embeddings_seq)
+            // float[] batchScores = NativeLibrary.rank(modelHandle, query, documents.subList(start, end).toArray(new String[0]));
+            for (int i = start; i < end; i++) {
+                scores[i] = lexicalOverlap(query, documents.get(i)); // Placeholder score
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the topN candidates ordered by reranker score.
+     */
+    public List<ScoredChunk> rerank(String query, List<EnhancedDocumentProcessor.DocumentChunk> candidates, int topN) {
+        Span span = RagTracing.tracer().spanBuilder("rag.rerank")
+            .setAttribute("rag.rerank.candidates", candidates.size())
+            .startSpan();
+        long start = System.nanoTime();
+        try (Scope scope = span.makeCurrent()) {
+            List<String> documents = new ArrayList<>(candidates.size());
+            for (EnhancedDocumentProcessor.DocumentChunk chunk : candidates) {
+                documents.add(chunk.getContent());
+            }
+            float[] scores = score(query, documents);
+
+            List<ScoredChunk> ranked = new ArrayList<>(candidates.size());
+            for (int i = 0; i < candidates.size(); i++) {
+                ranked.add(new ScoredChunk(candidates.get(i), scores[i]));
+            }
+            // Stable sort keeps retrieval order among equal scores
+            ranked.sort(Comparator.comparingDouble(ScoredChunk::getScore).reversed());
+            List<ScoredChunk> kept = new ArrayList<>(ranked.subList(0, Math.min(topN, ranked.size())));
+            span.setAttribute("rag.rerank.kept", kept.size());
+            return kept;
+        } finally {
+            RERANK_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            span.end();
+        }
+    }
+
+    /**
+     * Fraction of distinct query terms that occur in the document.
+     */
+    private static float lexicalOverlap(String query, String document) {
+        Set<String> queryTerms = terms(query);
+        if (queryTerms.isEmpty()) {
+            return 0f;
+        }
+        Set<String> documentTerms = terms(document);
+        int matches = 0;
+        for (String term : queryTerms) {
+            if (documentTerms.contains(term)) {
+                matches++;
+            }
+        }
+        return (float) matches / queryTerms.size();
+    }
+
+    private static Set<String> terms(String text) {
+        Set<String> terms = new HashSet<>();
+        for (String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (term.length() > 2) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    @Override
+    public void close() {
+        // NATIVE JNI CALL: free the reranker model
+        // NativeLibrary.freeModel(modelHandle);
+        log.info("✓ Reranker model released from memory.");
+    }
+
+    public static class ScoredChunk {
+        private final EnhancedDocumentProcessor.DocumentChunk chunk;
+        private final float score;
+
+        public ScoredChunk(EnhancedDocumentProcessor.DocumentChunk chunk, float score) {
+            this.chunk = chunk;
+            this.score = score;
+        }
+
+        public EnhancedDocumentProcessor.DocumentChunk getChunk() { return chunk; }
+        public float getScore() { return score; }
+    }
+}
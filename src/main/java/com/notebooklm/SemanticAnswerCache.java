@@ -0,0 +1,167 @@
+package com.notebooklm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Semantic cache for generated answers.
+ * An answer is reused when a new question's embedding is within a cosine similarity
+ * threshold of a previously answered question and retrieval produced the same set of
+ * source chunks. Entries are persisted in CouchDB so the cache survives restarts.
+ */
+public class SemanticAnswerCache {
+    private static final Logger log = LoggerFactory.getLogger(SemanticAnswerCache.class);
+
+    private final CouchDBClient couchDBClient;
+    private final double similarityThreshold;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public SemanticAnswerCache(CouchDBClient couchDBClient, double similarityThreshold, int maxEntries) {
+        this.couchDBClient = couchDBClient;
+        this.similarityThreshold = similarityThreshold;
+        this.maxEntries = maxEntries;
+        // Access-ordered so the least recently used entry is evicted first
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        try {
+            loadEntries();
+            log.info("✓ Semantic answer cache loaded {} entries", entries.size());
+        } catch (Exception e) {
+            log.warn("Failed to load semantic answer cache", e);
+        }
+    }
+
+    /**
+     * Loads the most recent persisted entries from CouchDB.
+     */
+    private synchronized void loadEntries() throws Exception {
+        List<CouchDBClient.CachedAnswer> cached = couchDBClient.getCachedAnswers(maxEntries);
+        // Insert oldest first so the newest entries are the most recently used
+        for (int i = cached.size() - 1; i >= 0; i--) {
+            CouchDBClient.CachedAnswer answer = cached.get(i);
+            entries.put(answer.getId(), new Entry(
+                normalize(answer.getEmbedding()),
+                sourceKey(answer.getSourceIds()),
+                answer.getAnswer()
+            ));
+        }
+    }
+
+    /**
+     * Returns a cached answer for a semantically equivalent question with the same
+     * retrieved sources, or null if there is no match.
+     */
+    public synchronized String lookup(List<Float> questionEmbedding, List<String> sourceIds) {
+        float[] query = normalize(questionEmbedding);
+        String key = sourceKey(sourceIds);
+
+        String bestId = null;
+        double bestSimilarity = similarityThreshold;
+        for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+            Entry entry = candidate.getValue();
+            if (!entry.sourceKey.equals(key) || entry.embedding.length != query.length) {
+                continue;
+            }
+            double similarity = dot(query, entry.embedding);
+            if (similarity >= bestSimilarity) {
+                bestSimilarity = similarity;
+                bestId = candidate.getKey();
+            }
+        }
+
+        if (bestId == null) {
+            return null;
+        }
+        // get() refreshes the entry's position in access order
+        return entries.get(bestId).answer;
+    }
+
+    /**
+     * Adds an answer to the cache and queues it to be persisted to CouchDB in the background.
+     */
+    public void put(String question, List<Float> questionEmbedding, List<String> sourceIds, String answer) {
+        String docId;
+        try {
+            docId = couchDBClient.storeCachedAnswerAsync(question, questionEmbedding, sourceIds, answer);
+        } catch (Exception e) {
+            log.warn("Failed to persist cached answer", e);
+            return;
+        }
+
+        synchronized (this) {
+            entries.put(docId, new Entry(normalize(questionEmbedding), sourceKey(sourceIds), answer));
+            Iterator<String> eldest = entries.keySet().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Identifies a retrieved chunk by its file path, position and content, so chunks of
+     * same-named files in different folders differ and re-indexing an edited document
+     * invalidates answers built from its old text.
+     */
+    public static String sourceId(EnhancedDocumentProcessor.DocumentChunk chunk) {
+        return chunk.getFilePath() + "#" + chunk.getChunkIndex() + ":" + KvSnapshotStore.hash(chunk.getContent());
+    }
+
+    /**
+     * Builds an order-independent key for a set of source chunk ids.
+     */
+    private static String sourceKey(List<String> sourceIds) {
+        return String.join("\u0000", new TreeSet<>(sourceIds != null ? sourceIds : new ArrayList<>()));
+    }
+
+    /**
+     * Converts an embedding to a unit-length array so cosine similarity is a dot product.
+     */
+    private static float[] normalize(List<Float> embedding) {
+        float[] vector = new float[embedding.size()];
+        double norm = 0.0;
+        for (int i = 0; i < vector.length; i++) {
+            Float value = embedding.get(i);
+            vector[i] = value != null ? value : 0.0f;
+            norm += vector[i] * vector[i];
+        }
+        if (norm > 0.0) {
+            float inverse = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= inverse;
+            }
+        }
+        return vector;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static class Entry {
+        private final float[] embedding;
+        private final String sourceKey;
+        private final String answer;
+
+        Entry(float[] embedding, String sourceKey, String answer) {
+            this.embedding = embedding;
+            this.sourceKey = sourceKey;
+            this.answer = answer;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.notebooklm;
 
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Scope;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
@@ -9,27 +12,52 @@ import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Client for interacting with Apache Solr for vector-based document storage and retrieval.
  * Supports both vector similarity search and traditional keyword search.
  */
 public class SolrVectorDB implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SolrVectorDB.class);
+    private static final Timer HYBRID_QUERY_TIMER = RagMetrics.timer("rag.solr.query", "type", "hybrid");
+    private static final Timer KEYWORD_QUERY_TIMER = RagMetrics.timer("rag.solr.query", "type", "keyword");
+    private static final Timer UPDATE_TIMER = RagMetrics.timer("rag.solr.update");
+
     private final SolrClient solrClient;
     private final String coreName;
-    private final GraniteModelWrapper modelWrapper;
+    // Embeds chunks at index time and queries at search time; both must use the same model
+    private final Function<String, List<Float>> embedder;
+
+    /**
+     * Embeds with the registry's embedding model (or the chat model when none is configured),
+     * the same model the answer cache and retrieval use.
+     */
+    public SolrVectorDB(String solrUrl, String coreName, ModelRegistry models) {
+        this(solrUrl, coreName, models::embed);
+    }
 
     public SolrVectorDB(String solrUrl, String coreName, GraniteModelWrapper modelWrapper) {
+        this(solrUrl, coreName, modelWrapper::generateEmbedding);
+    }
+
+    public SolrVectorDB(String solrUrl, String coreName, Function<String, List<Float>> embedder) {
         this.coreName = coreName;
-        this.modelWrapper = modelWrapper;
+        this.embedder = embedder;
         this.solrClient = new Http2SolrClient.Builder(solrUrl).build();
-        System.out.println("✓ Connected to Solr at " + solrUrl + "/" + coreName);
+        log.info("✓ Connected to Solr at {}/{}", solrUrl, coreName);
     }
 
     /**
@@ -37,7 +65,7 @@ public class SolrVectorDB implements AutoCloseable {
      */
     public void storeDocument(DocumentChunk chunk) throws SolrServerException, IOException {
         // Generate embedding for the chunk content
-        List<Float> embedding = modelWrapper.generateEmbedding(chunk.getContent());
+        List<Float> embedding = embedder.apply(chunk.getContent());
         
         SolrInputDocument doc = new SolrInputDocument();
         doc.addField("id", chunk.getId());
@@ -59,7 +87,9 @@ public class SolrVectorDB implements AutoCloseable {
             }
         }
 
+        long start = System.nanoTime();
         UpdateResponse response = solrClient.add(coreName, doc);
+        UPDATE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         if (response.getStatus() != 0) {
             throw new IOException("Failed to store document in Solr: " + response.toString());
         }
@@ -72,7 +102,7 @@ public class SolrVectorDB implements AutoCloseable {
         List<SolrInputDocument> docs = new ArrayList<>();
         
         for (DocumentChunk chunk : chunks) {
-            List<Float> embedding = modelWrapper.generateEmbedding(chunk.getContent());
+            List<Float> embedding = embedder.apply(chunk.getContent());
             
             SolrInputDocument doc = new SolrInputDocument();
             doc.addField("id", chunk.getId());
@@ -96,6 +126,7 @@ public class SolrVectorDB implements AutoCloseable {
             docs.add(doc);
         }
 
+        long start = System.nanoTime();
         UpdateResponse response = solrClient.add(coreName, docs);
         if (response.getStatus() != 0) {
             throw new IOException("Failed to batch store documents in Solr: " + response.toString());
@@ -103,7 +134,8 @@ public class SolrVectorDB implements AutoCloseable {
         
         // Commit the changes
         solrClient.commit(coreName);
-        System.out.println("✓ Stored " + chunks.size() + " document chunks in Solr");
+        UPDATE_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.debug("✓ Stored {} document chunks in Solr", chunks.size());
     }
 
     /**
@@ -111,31 +143,39 @@ public class SolrVectorDB implements AutoCloseable {
      */
     public List<SearchResult> search(String query, int topK) throws SolrServerException, IOException {
         // Generate embedding for the query
-        List<Float> queryEmbedding = modelWrapper.generateEmbedding(query);
-        
-        SolrQuery solrQuery = new SolrQuery();
-        
-        // Combine vector search with keyword search using boost
-        StringBuilder queryBuilder = new StringBuilder();
-        
-        // Vector similarity search (primary)
-        queryBuilder.append("{!knn f=vector topK=").append(topK * 2).append("}");
-        queryBuilder.append("[");
-        for (int i = 0; i < queryEmbedding.size(); i++) {
-            if (i > 0) queryBuilder.append(",");
-            queryBuilder.append(queryEmbedding.get(i));
+        List<Float> queryEmbedding = embedder.apply(query);
+        return search(query, queryEmbedding, topK);
+    }
+
+    /**
+     * Performs a hybrid search using a precomputed query embedding.
+     */
+    public List<SearchResult> search(String query, List<Float> queryEmbedding, int topK) throws SolrServerException, IOException {
+        Span span = RagTracing.tracer().spanBuilder("solr.search")
+            .setAttribute("solr.core", coreName)
+            .setAttribute("solr.top_k", topK)
+            .startSpan();
+        try (Scope scope = span.makeCurrent()) {
+            List<SearchResult> results = hybridSearch(query, queryEmbedding, topK);
+            span.setAttribute("solr.results", results.size());
+            return results;
+        } catch (SolrServerException | IOException | RuntimeException e) {
+            RagTracing.recordError(span, e);
+            throw e;
+        } finally {
+            span.end();
         }
-        queryBuilder.append("]");
-        
-        // Add keyword search boost for exact matches
-        queryBuilder.append(" OR (content:\"").append(escapeQuery(query)).append("\")^2.0");
-        queryBuilder.append(" OR (title:\"").append(escapeQuery(query)).append("\")^3.0");
-        
-        solrQuery.setQuery(queryBuilder.toString());
+    }
+
+    private List<SearchResult> hybridSearch(String query, List<Float> queryEmbedding, int topK) throws SolrServerException, IOException {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(buildHybridQuery(query, queryEmbedding, topK));
         solrQuery.setRows(topK);
         solrQuery.setFields("id", "title", "content", "file_path", "score", "meta_*");
         
+        long start = System.nanoTime();
         QueryResponse response = solrClient.query(coreName, solrQuery);
+        HYBRID_QUERY_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         SolrDocumentList results = response.getResults();
         
         List<SearchResult> searchResults = new ArrayList<>();
@@ -161,12 +201,49 @@ public class SolrVectorDB implements AutoCloseable {
             searchResults.add(result);
         }
         
-        System.out.println("Found " + searchResults.size() + " results for query: " + 
-                          query.substring(0, Math.min(50, query.length())));
+        if (log.isDebugEnabled()) {
+            log.debug("Found {} results for query: {}", searchResults.size(),
+                      query.substring(0, Math.min(50, query.length())));
+        }
         
         return searchResults;
     }
 
+    /**
+     * Builds the hybrid query string combining kNN vector similarity with keyword boosts.
+     */
+    static String buildHybridQuery(String query, List<Float> queryEmbedding, int topK) {
+        // Combine vector search with keyword search using boost
+        StringBuilder queryBuilder = new StringBuilder();
+        
+        // Vector similarity search (primary)
+        queryBuilder.append("{!knn f=vector topK=").append(topK * 2).append("}");
+        queryBuilder.append("[");
+        for (int i = 0; i < queryEmbedding.size(); i++) {
+            if (i > 0) queryBuilder.append(",");
+            queryBuilder.append(queryEmbedding.get(i));
+        }
+        queryBuilder.append("]");
+        
+        // Add keyword search boost for exact matches
+        queryBuilder.append(" OR (content:\"").append(escapeQuery(query)).append("\")^2.0");
+        queryBuilder.append(" OR (title:\"").append(escapeQuery(query)).append("\")^3.0");
+        
+        return queryBuilder.toString();
+    }
+
+    /**
+     * Converts search results back to document chunks, in result order, for reranking and
+     * context packing.
+     */
+    public static List<EnhancedDocumentProcessor.DocumentChunk> toChunks(List<SearchResult> results) {
+        List<EnhancedDocumentProcessor.DocumentChunk> chunks = new ArrayList<>(results.size());
+        for (SearchResult result : results) {
+            chunks.add(result.toChunk());
+        }
+        return chunks;
+    }
+
     /**
      * Performs a pure keyword search without vector similarity.
      */
@@ -181,7 +258,9 @@ public class SolrVectorDB implements AutoCloseable {
         solrQuery.setRows(topK);
         solrQuery.setFields("id", "title", "content", "file_path", "score", "meta_*");
         
+        long start = System.nanoTime();
         QueryResponse response = solrClient.query(coreName, solrQuery);
+        KEYWORD_QUERY_TIMER.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         SolrDocumentList results = response.getResults();
         
         List<SearchResult> searchResults = new ArrayList<>();
@@ -216,7 +295,7 @@ public class SolrVectorDB implements AutoCloseable {
     public void clearAll() throws SolrServerException, IOException {
         solrClient.deleteByQuery(coreName, "*:*");
         solrClient.commit(coreName);
-        System.out.println("✓ Cleared all documents from Solr core: " + coreName);
+        log.info("✓ Cleared all documents from Solr core: {}", coreName);
     }
 
     /**
@@ -225,7 +304,7 @@ public class SolrVectorDB implements AutoCloseable {
     public void deleteByFilePath(String filePath) throws SolrServerException, IOException {
         solrClient.deleteByQuery(coreName, "file_path:\"" + escapeQuery(filePath) + "\"");
         solrClient.commit(coreName);
-        System.out.println("✓ Deleted documents for file: " + filePath);
+        log.info("✓ Deleted documents for file: {}", filePath);
     }
 
     /**
@@ -248,7 +327,7 @@ public class SolrVectorDB implements AutoCloseable {
     /**
      * Escapes special characters in Solr queries.
      */
-    private String escapeQuery(String query) {
+    private static String escapeQuery(String query) {
         return query.replaceAll("([+\\-!(){}\\[\\]^\"~*?:\\\\/])", "\\\\$1");
     }
 
@@ -256,7 +335,7 @@ public class SolrVectorDB implements AutoCloseable {
     public void close() throws IOException {
         if (solrClient != null) {
             solrClient.close();
-            System.out.println("✓ Closed Solr connection");
+            log.info("✓ Closed Solr connection");
         }
     }
 
@@ -264,6 +343,8 @@ public class SolrVectorDB implements AutoCloseable {
      * Inner class representing a search result.
      */
     public static class SearchResult {
+        private static final Pattern CHUNK_TITLE = Pattern.compile("(.*) \\(chunk (\\d+)\\)");
+
         private String id;
         private String title;
         private String content;
@@ -290,6 +371,20 @@ public class SolrVectorDB implements AutoCloseable {
         public Map<String, Object> getMetadata() { return metadata; }
         public void setMetadata(Map<String, Object> metadata) { this.metadata = metadata; }
 
+        /**
+         * Rebuilds the indexed chunk; the file name and chunk index come from the stored
+         * title, which is the chunk's "fileName (chunk N)".
+         */
+        public EnhancedDocumentProcessor.DocumentChunk toChunk() {
+            Matcher matcher = title != null ? CHUNK_TITLE.matcher(title) : null;
+            if (matcher != null && matcher.matches()) {
+                return new EnhancedDocumentProcessor.DocumentChunk(filePath, matcher.group(1), content,
+                    Integer.parseInt(matcher.group(2)));
+            }
+            String fileName = filePath != null ? Paths.get(filePath).getFileName().toString() : title;
+            return new EnhancedDocumentProcessor.DocumentChunk(filePath, fileName, content, 0);
+        }
+
         @Override
         public String toString() {
             return String.format("SearchResult{id='%s', title='%s', filePath='%s', score=%.3f}", 
@@ -1,13 +1,24 @@
 package com.notebooklm;
 
+import com.notebooklm.EnhancedDocumentProcessor.DocumentChunk;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Scope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.SwingWorker;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Properties;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -19,12 +30,19 @@ import java.io.InputStream;
  * Enhanced with accessibility-focused font support
  */
 public class NotebookLMCloneGUI extends JFrame {
+    private static final Logger log = LoggerFactory.getLogger(NotebookLMCloneGUI.class);
+
     // Core RAG System Components
     private LLMServer llmServer;
     private SolrVectorDB vectorDB;
     private CouchDBClient couchDB;
     private EnhancedDocumentProcessor documentProcessor;
     private InternalLLMClient llmClient;
+    private SemanticAnswerCache answerCache;
+    private ContextPacker contextPacker;
+    private HttpTransport httpTransport;
+    private ExecutorService taskExecutor;
+    private volatile CancellationToken queryCancellation;
     
     // GUI Components
     private JButton selectFolderButton;
@@ -94,14 +112,14 @@ public class NotebookLMCloneGUI extends JFrame {
         for (Font font : candidateFonts) {
             if (font != null && isFontAvailable(font)) {
                 selectedFont = font;
-                System.out.println("Selected font: " + font.getFontName());
+                log.debug("Selected font: {}", font.getFontName());
                 break;
             }
         }
         
         if (selectedFont == null) {
             selectedFont = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
-            System.out.println("Fallback to default font");
+            log.debug("Fallback to default font");
         }
         
         // Create font variations
@@ -129,22 +147,22 @@ public class NotebookLMCloneGUI extends JFrame {
             if (fontStream != null) {
                 font = Font.createFont(Font.TRUETYPE_FONT, fontStream);
                 GraphicsEnvironment.getLocalGraphicsEnvironment().registerFont(font);
-                System.out.println("Loaded font from resources: " + fileName);
+                log.debug("Loaded font from resources: {}", fileName);
                 return font.deriveFont(12f);
             }
         } catch (Exception e) {
-            System.out.println("Could not load font from resources: " + fileName);
+            log.debug("Could not load font from resources: {}", fileName);
         }
         
         // Try system font by name
         try {
             font = new Font(systemName, Font.PLAIN, 12);
             if (isFontAvailable(font)) {
-                System.out.println("Using system font: " + systemName);
+                log.debug("Using system font: {}", systemName);
                 return font;
             }
         } catch (Exception e) {
-            System.out.println("System font not available: " + systemName);
+            log.debug("System font not available: {}", systemName);
         }
         
         return null;
@@ -498,36 +516,59 @@ public class NotebookLMCloneGUI extends JFrame {
     }
     
     private void initializeSystem() {
+        // Background work (indexing, queries) mostly waits on Solr, CouchDB and the model
+        taskExecutor = RagExecutors.newTaskExecutor("rag-task",
+            RagExecutors.virtualThreadsEnabled(config), 10);
+        
         SwingWorker<Void, String> worker = new SwingWorker<Void, String>() {
             @Override
             protected Void doInBackground() throws Exception {
                 publish("Initializing RAG system components...");
+                RagTracing.init(config);
                 
                 // Initialize LLM Server
                 publish("Starting LLM Server...");
-                String modelPath = config.getProperty("rag.config.graniteModelPath");
-                llmServer = new LLMServer(modelPath);
-                
-                // Wait a moment for server to fully start
-                Thread.sleep(2000);
+                llmServer = new LLMServer(config);
                 
                 // Initialize other components
                 publish("Connecting to vector database...");
-                vectorDB = new SolrVectorDB(config.getProperty("rag.config.solrUrl"));
+                vectorDB = new SolrVectorDB(config.getProperty("rag.config.solrUrl"),
+                    config.getProperty("rag.config.solrCore", "documents"), llmServer.getModels());
+                
+                httpTransport = HttpTransport.fromConfig(config);
                 
                 publish("Connecting to conversation database...");
                 couchDB = new CouchDBClient(
                     config.getProperty("rag.config.couchDbUrl"),
                     config.getProperty("rag.config.couchDbDatabase"),
                     config.getProperty("rag.config.couchDbUsername"),
-                    config.getProperty("rag.config.couchDbPassword")
+                    config.getProperty("rag.config.couchDbPassword"),
+                    Integer.parseInt(config.getProperty("rag.config.couchDbWriteQueueCapacity", "10000")),
+                    Integer.parseInt(config.getProperty("rag.config.couchDbBulkBatchSize", "100")),
+                    httpTransport
                 );
                 
                 publish("Initializing document processor...");
                 documentProcessor = new EnhancedDocumentProcessor();
                 
                 publish("Initializing LLM client...");
-                llmClient = new InternalLLMClient();
+                llmClient = new InternalLLMClient(httpTransport);
+                
+                contextPacker = ContextPacker.fromConfig(config, llmServer.getModelWrapper()::countTokens);
+                
+                if (Boolean.parseBoolean(config.getProperty("rag.config.answerCache.enabled", "true"))) {
+                    publish("Loading semantic answer cache...");
+                    answerCache = new SemanticAnswerCache(
+                        couchDB,
+                        Double.parseDouble(config.getProperty("rag.config.answerCache.similarityThreshold", "0.95")),
+                        Integer.parseInt(config.getProperty("rag.config.answerCache.maxEntries", "1000"))
+                    );
+                }
+                
+                // The model warms up while the other components initialize
+                publish("Warming up model...");
+                llmServer.awaitReady(Long.parseLong(config.getProperty("rag.config.model.readyTimeoutMs", "300000")),
+                    TimeUnit.MILLISECONDS);
                 
                 publish("System initialization complete!");
                 return null;
@@ -606,31 +647,51 @@ public class NotebookLMCloneGUI extends JFrame {
                     progressBar.setValue(0);
                 });
                 
-                int processed = 0;
-                for (File file : files) {
-                    if (file.isFile()) {
-                        try {
-                            publish("Processing: " + file.getName());
-                            
-                            // Process document using the existing document processor
-                            List<DocumentChunk> chunks = documentProcessor.processFile(file.getAbsolutePath());
-                            
-                            // Store chunks in vector database
-                            for (DocumentChunk chunk : chunks) {
-                                vectorDB.storeDocument(chunk);
-                            }
-                            
-                            processed++;
-                            final int currentProgress = processed;
-                            SwingUtilities.invokeLater(() -> progressBar.setValue(currentProgress));
-                            
-                        } catch (Exception ex) {
-                            publish("Error processing " + file.getName() + ": " + ex.getMessage());
+                // Index files concurrently, bounded so parsing/OCR does not oversubscribe the CPU.
+                // Files get their own executor: this worker runs on taskExecutor and waits for
+                // them, so sharing its fixed platform pool could leave no thread to run them.
+                int maxConcurrentFiles = Integer.parseInt(config.getProperty("rag.config.indexing.maxConcurrentFiles", "4"));
+                Semaphore permits = new Semaphore(maxConcurrentFiles);
+                AtomicInteger processed = new AtomicInteger();
+                List<Future<?>> tasks = new ArrayList<>();
+                try (ExecutorService indexer = RagExecutors.newTaskExecutor("indexer",
+                        RagExecutors.virtualThreadsEnabled(config), maxConcurrentFiles)) {
+                    for (File file : files) {
+                        if (file.isFile()) {
+                            tasks.add(indexer.submit(() -> {
+                                try {
+                                    permits.acquire();
+                                    try {
+                                        publish("Processing: " + file.getName());
+                                    
+                                        // Process document using the existing document processor
+                                        List<DocumentChunk> chunks = documentProcessor.processFile(file.getAbsolutePath());
+                                    
+                                        // Store chunks in vector database
+                                        for (DocumentChunk chunk : chunks) {
+                                            vectorDB.storeDocument(chunk);
+                                        }
+                                    } finally {
+                                        permits.release();
+                                    }
+                                
+                                    final int currentProgress = processed.incrementAndGet();
+                                    SwingUtilities.invokeLater(() -> progressBar.setValue(currentProgress));
+                                
+                                } catch (InterruptedException ex) {
+                                    Thread.currentThread().interrupt();
+                                } catch (Exception ex) {
+                                    publish("Error processing " + file.getName() + ": " + ex.getMessage());
+                                }
+                            }));
                         }
                     }
+                    for (Future<?> task : tasks) {
+                        task.get();
+                    }
                 }
                 
-                publish("Indexing complete! Processed " + processed + " documents.");
+                publish("Indexing complete! Processed " + processed.get() + " documents.");
                 return null;
             }
             
@@ -651,7 +712,7 @@ public class NotebookLMCloneGUI extends JFrame {
             }
         };
         
-        worker.execute();
+        taskExecutor.execute(worker);
     }
     
     private void sendQuery(ActionEvent e) {
@@ -671,34 +732,16 @@ public class NotebookLMCloneGUI extends JFrame {
             protected String doInBackground() throws Exception {
                 statusLabel.setText("Searching documents and generating response...");
                 
-                // Search for relevant documents
-                List<DocumentChunk> relevantChunks = vectorDB.searchSimilarDocuments(query, 5);
-                
-                // Build context from relevant chunks
-                StringBuilder contextBuilder = new StringBuilder();
-                contextBuilder.append("Context from relevant documents:\n\n");
-                
-                for (DocumentChunk chunk : relevantChunks) {
-                    contextBuilder.append("From: ").append(chunk.getFilePath()).append("\n");
-                    contextBuilder.append(chunk.getContent()).append("\n\n");
-                }
-                
-                // Create full prompt
-                String fullPrompt = contextBuilder.toString() + 
-                    "\nUser Question: " + query + 
-                    "\n\nPlease provide a helpful answer based on the context above:";
-                
-                // Generate response using LLM
-                String response = llmClient.generateTextResponse(fullPrompt);
-                
-                // Store conversation in CouchDB
-                try {
-                    couchDB.storeResponse(query, response);
+                // Root span for the whole question; stages below become its children
+                Span span = RagTracing.tracer().spanBuilder("rag.question").startSpan();
+                try (Scope scope = span.makeCurrent()) {
+                    return answerQuery(query);
                 } catch (Exception ex) {
-                    System.err.println("Failed to store conversation: " + ex.getMessage());
+                    RagTracing.recordError(span, ex);
+                    throw ex;
+                } finally {
+                    span.end();
                 }
-                
-                return response;
             }
             
             @Override
@@ -719,7 +762,102 @@ public class NotebookLMCloneGUI extends JFrame {
             }
         };
         
-        worker.execute();
+        taskExecutor.execute(worker);
+    }
+    
+    /**
+     * Retrieves context, generates (or reuses) an answer and records the conversation.
+     */
+    private String answerQuery(String query) throws Exception {
+        // Search for relevant documents, reranking a wider candidate set when enabled
+        int topN = Integer.parseInt(config.getProperty("rag.config.rerank.topN", "5"));
+        List<DocumentChunk> relevantChunks;
+        ModelRegistry models = llmServer.getModels();
+        if (models.hasRole(ModelRegistry.Role.RERANK)) {
+            int candidates = Integer.parseInt(config.getProperty("rag.config.rerank.candidates", "20"));
+            relevantChunks = new ArrayList<>();
+            for (Reranker.ScoredChunk scored : models.rerank(query, SolrVectorDB.toChunks(vectorDB.search(query, candidates)), topN)) {
+                relevantChunks.add(scored.getChunk());
+            }
+        } else {
+            relevantChunks = SolrVectorDB.toChunks(vectorDB.search(query, topN));
+        }
+        relevantChunks = contextPacker.pack(relevantChunks);
+        
+        // Reuse a cached answer for a semantically equivalent question over the same sources
+        List<Float> queryEmbedding = null;
+        List<String> sourceIds = new ArrayList<>();
+        for (DocumentChunk chunk : relevantChunks) {
+            sourceIds.add(SemanticAnswerCache.sourceId(chunk));
+        }
+        if (answerCache != null) {
+            queryEmbedding = llmServer.getModels().embed(query);
+            String cachedResponse = answerCache.lookup(queryEmbedding, sourceIds);
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+        }
+        
+        // Build context from relevant chunks
+        Span span = RagTracing.tracer().spanBuilder("rag.context_assembly").startSpan();
+        boolean structuredOutput = Boolean.parseBoolean(config.getProperty("rag.config.structuredOutput.enabled", "false"));
+        String fullPrompt;
+        if (structuredOutput) {
+            fullPrompt = CitedAnswer.buildPrompt(query, relevantChunks);
+        } else {
+            StringBuilder contextBuilder = new StringBuilder();
+            contextBuilder.append("Context from relevant documents:\n\n");
+            
+            for (DocumentChunk chunk : relevantChunks) {
+                contextBuilder.append("From: ").append(chunk.getFilePath()).append("\n");
+                contextBuilder.append(chunk.getContent()).append("\n\n");
+            }
+            
+            // Create full prompt
+            fullPrompt = contextBuilder.toString() + 
+                "\nUser Question: " + query + 
+                "\n\nPlease provide a helpful answer based on the context above:";
+        }
+        span.setAttribute("rag.chunks", relevantChunks.size());
+        span.setAttribute("rag.prompt.chars", fullPrompt.length());
+        span.end();
+        
+        // Generate response using LLM
+        CancellationToken cancellation = new CancellationToken();
+        queryCancellation = cancellation;
+        String response;
+        try {
+            if (structuredOutput) {
+                // Grammar-constrained {answer, citations}; list the cited sources under the answer
+                CitedAnswer answer = CitedAnswer.fromResponse(
+                    llmClient.generateStructuredResponse(fullPrompt, CitedAnswer.SCHEMA, cancellation), relevantChunks);
+                StringBuilder cited = new StringBuilder(answer.getAnswer());
+                if (!answer.getCitedChunks().isEmpty()) {
+                    cited.append("\n\nSources:");
+                    for (DocumentChunk chunk : answer.getCitedChunks()) {
+                        cited.append("\n- ").append(chunk.getFileName());
+                    }
+                }
+                response = cited.toString();
+            } else {
+                response = llmClient.generateTextResponse(fullPrompt, cancellation);
+            }
+        } finally {
+            queryCancellation = null;
+        }
+        
+        if (answerCache != null) {
+            answerCache.put(query, queryEmbedding, sourceIds, response);
+        }
+        
+        // Store conversation in CouchDB
+        try {
+            couchDB.storeResponse(query, response);
+        } catch (Exception ex) {
+            log.warn("Failed to store conversation", ex);
+        }
+        
+        return response;
     }
     
     private void clearChat(ActionEvent e) {
@@ -765,11 +903,36 @@ public class NotebookLMCloneGUI extends JFrame {
         
         if (result == JOptionPane.YES_OPTION) {
             // Cleanup resources
+            CancellationToken cancellation = queryCancellation;
+            if (cancellation != null) {
+                cancellation.cancel(); // Stop decoding an answer nobody will read
+            }
+            
+            if (taskExecutor != null) {
+                taskExecutor.shutdownNow();
+            }
+            
             if (llmClient != null) {
                 try {
                     llmClient.close();
                 } catch (Exception e) {
-                    System.err.println("Error closing LLM client: " + e.getMessage());
+                    log.warn("Error closing LLM client", e);
+                }
+            }
+            
+            if (couchDB != null) {
+                try {
+                    couchDB.close(); // Flushes queued conversation turns
+                } catch (Exception e) {
+                    log.warn("Error closing CouchDB client", e);
+                }
+            }
+            
+            if (httpTransport != null) {
+                try {
+                    httpTransport.close();
+                } catch (Exception e) {
+                    log.warn("Error closing HTTP transport", e);
                 }
             }
             
@@ -777,10 +940,12 @@ public class NotebookLMCloneGUI extends JFrame {
                 try {
                     llmServer.close();
                 } catch (Exception e) {
-                    System.err.println("Error closing LLM server: " + e.getMessage());
+                    log.warn("Error closing LLM server", e);
                 }
             }
             
+            RagTracing.shutdown();
+            
             System.exit(0);
         }
     }
@@ -831,7 +996,7 @@ public class NotebookLMCloneGUI extends JFrame {
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeel());
         } catch (Exception e) {
-            System.err.println("Could not set system look and feel: " + e.getMessage());
+            log.warn("Could not set system look and feel: {}", e.getMessage());
         }
         
         // Enable font anti-aliasing for better readability
@@ -1,10 +1,13 @@
 package com.notebooklm.util;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 
 public class TesseractNativeExtractor {
+    private static final Logger log = LoggerFactory.getLogger(TesseractNativeExtractor.class);
     private static final String TEMP_DIR_PREFIX = "tesseract-native-";
     private static Path extractedLibsPath;
     private static Path extractedTessDataPath;
@@ -32,11 +35,11 @@ public class TesseractNativeExtractor {
             try {
                 deleteRecursively(tempDir);
             } catch (IOException e) {
-                System.err.println("Failed to cleanup temp directory: " + e.getMessage());
+                log.warn("Failed to cleanup temp directory", e);
             }
         }));
         
-        System.out.println("✓ Tesseract native libraries extracted to: " + tempDir);
+        log.info("✓ Tesseract native libraries extracted to: {}", tempDir);
     }
     
     private static String detectPlatform() {
@@ -92,7 +95,7 @@ public class TesseractNativeExtractor {
                 if (is != null) {
                     Files.copy(is, targetDir.resolve(lang + ".traineddata"), 
                               StandardCopyOption.REPLACE_EXISTING);
-                    System.out.println("✓ Extracted tessdata for language: " + lang);
+                    log.debug("✓ Extracted tessdata for language: {}", lang);
                 }
             }
         }
@@ -1,46 +1,96 @@
 package com.notebooklm;
 
 import com.notebooklm.util.TesseractNativeExtractor;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Scope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class IntegratedRAGSystem {
+    private static final Logger log = LoggerFactory.getLogger(IntegratedRAGSystem.class);
+
     private final Properties config;
     private final SolrVectorDB vectorDB;
     private final CouchDBClient couchDBClient;
     private final EnhancedDocumentProcessor documentProcessor;
     private final InternalLLMClient llmClient;
     private final LLMServer llmServer;
+    private final HttpTransport httpTransport;
+    private final SemanticAnswerCache answerCache;
+    private final ContextPacker contextPacker;
+    private final boolean structuredOutput;
+    private final boolean virtualThreads;
+    private volatile CancellationToken questionCancellation;
     
     public IntegratedRAGSystem() throws Exception {
-        System.out.println("🚀 Starting Self-Contained RAG System...");
+        log.info("🚀 Starting Self-Contained RAG System...");
         
         // Extract native libraries first
         TesseractNativeExtractor.extractNativeLibraries();
         
         // Load configuration
         this.config = loadConfiguration();
+        RagTracing.init(config);
+        this.virtualThreads = RagExecutors.virtualThreadsEnabled(config);
+        
+        // Shared pooled HTTP transport for CouchDB and the internal LLM server
+        this.httpTransport = HttpTransport.fromConfig(config);
         
         // Initialize components
-        this.vectorDB = new SolrVectorDB(config.getProperty("rag.config.solrUrl"));
         this.couchDBClient = new CouchDBClient(
             config.getProperty("rag.config.couchDbUrl"), 
             "conversations", 
             "admin", 
-            "password"
+            "password",
+            Integer.parseInt(config.getProperty("rag.config.couchDbWriteQueueCapacity", "10000")),
+            Integer.parseInt(config.getProperty("rag.config.couchDbBulkBatchSize", "100")),
+            httpTransport
         );
         this.documentProcessor = new EnhancedDocumentProcessor();
         
         // Start embedded LLM server
-        String modelPath = config.getProperty("rag.config.graniteModelPath");
-        this.llmServer = new LLMServer(modelPath);
+        this.llmServer = new LLMServer(config);
+        
+        // Index and search with the registry's embedding model
+        this.vectorDB = new SolrVectorDB(config.getProperty("rag.config.solrUrl"),
+            config.getProperty("rag.config.solrCore", "documents"), llmServer.getModels());
         
         // Initialize LLM client
-        this.llmClient = new InternalLLMClient();
+        this.llmClient = new InternalLLMClient(httpTransport);
+        
+        // Fit retrieved chunks to the prompt's token budget
+        this.contextPacker = ContextPacker.fromConfig(config, llmServer.getModelWrapper()::countTokens);
+        
+        // Ask for {answer, citations} under a schema grammar instead of free text
+        this.structuredOutput = Boolean.parseBoolean(config.getProperty("rag.config.structuredOutput.enabled", "false"));
         
-        System.out.println("✅ Self-Contained RAG System initialized successfully!");
+        // Initialize semantic answer cache
+        if (Boolean.parseBoolean(config.getProperty("rag.config.answerCache.enabled", "true"))) {
+            this.answerCache = new SemanticAnswerCache(
+                couchDBClient,
+                Double.parseDouble(config.getProperty("rag.config.answerCache.similarityThreshold", "0.95")),
+                Integer.parseInt(config.getProperty("rag.config.answerCache.maxEntries", "1000"))
+            );
+        } else {
+            this.answerCache = null;
+        }
+        
+        // The model warms up while the other components initialize
+        llmServer.awaitReady(Long.parseLong(config.getProperty("rag.config.model.readyTimeoutMs", "300000")),
+            TimeUnit.MILLISECONDS);
+        
+        log.info("✅ Self-Contained RAG System initialized successfully!");
     }
     
     private Properties loadConfiguration() throws IOException {
@@ -62,7 +112,8 @@ public class IntegratedRAGSystem {
             System.out.println("\n=== Self-Contained RAG Notebook ===");
             System.out.println("1. Index documents");
             System.out.println("2. Ask a question");
-            System.out.println("3. Exit");
+            System.out.println("3. Ask about one document");
+            System.out.println("4. Exit");
             System.out.print("Choose an option: ");
             
             String choice = scanner.nextLine().trim();
@@ -75,6 +126,9 @@ public class IntegratedRAGSystem {
                     askQuestion(scanner, conversationId);
                     break;
                 case "3":
+                    askAboutDocument(scanner);
+                    break;
+                case "4":
                     System.out.println("Goodbye!");
                     return;
                 default:
@@ -92,7 +146,7 @@ public class IntegratedRAGSystem {
             // This is a simplified version
             java.io.File directory = new java.io.File(documentsPath);
             if (!directory.exists() || !directory.isDirectory()) {
-                System.err.println("Documents directory not found: " + documentsPath);
+                log.error("Documents directory not found: {}", documentsPath);
                 return;
             }
             
@@ -102,93 +156,254 @@ public class IntegratedRAGSystem {
                 return;
             }
             
-            int processedCount = 0;
-            for (java.io.File file : files) {
-                if (file.isFile()) {
-                    try {
-                        System.out.println("Processing: " + file.getName());
-                        var chunks = documentProcessor.processFile(file.getAbsolutePath());
-                        
-                        for (var chunk : chunks) {
-                            // Generate embedding and store in Solr
-                            // This would use the GraniteModelWrapper for embeddings
-                            vectorDB.indexDocument(chunk);
-                        }
-                        processedCount++;
-                    } catch (Exception e) {
-                        System.err.println("Failed to process " + file.getName() + ": " + e.getMessage());
+            // Index files concurrently; the semaphore bounds CPU-heavy parsing/OCR while
+            // tasks waiting on Solr do not hold a platform thread when virtual threads are on
+            int maxConcurrentFiles = Integer.parseInt(config.getProperty("rag.config.indexing.maxConcurrentFiles", "4"));
+            Semaphore permits = new Semaphore(maxConcurrentFiles);
+            AtomicInteger processedCount = new AtomicInteger();
+            List<Future<?>> tasks = new ArrayList<>();
+            try (ExecutorService executor = RagExecutors.newTaskExecutor("indexer", virtualThreads, maxConcurrentFiles)) {
+                for (java.io.File file : files) {
+                    if (file.isFile()) {
+                        tasks.add(executor.submit(() -> indexFile(file, permits, processedCount)));
                     }
                 }
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
             }
             
-            System.out.println("✅ Indexed " + processedCount + " documents successfully!");
+            System.out.println("✅ Indexed " + processedCount.get() + " documents successfully!");
             
         } catch (Exception e) {
-            System.err.println("Failed to index documents: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Failed to index documents", e);
+        }
+    }
+    
+    private void indexFile(java.io.File file, Semaphore permits, AtomicInteger processedCount) {
+        try {
+            permits.acquire();
+            try {
+                System.out.println("Processing: " + file.getName());
+                var chunks = documentProcessor.processFile(file.getAbsolutePath());
+                
+                for (var chunk : chunks) {
+                    // Generate embedding and store in Solr
+                    // This would use the GraniteModelWrapper for embeddings
+                    vectorDB.indexDocument(chunk);
+                }
+                processedCount.incrementAndGet();
+            } finally {
+                permits.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Failed to process {}", file.getName(), e);
         }
     }
     
     private void askQuestion(Scanner scanner, String conversationId) {
+        System.out.print("❓ Enter your question: ");
+        String question = scanner.nextLine().trim();
+        
+        if (question.isEmpty()) {
+            System.out.println("Please enter a valid question.");
+            return;
+        }
+        
+        // Root span for the whole question; stages below become its children
+        Span span = RagTracing.tracer().spanBuilder("rag.question").startSpan();
+        try (Scope scope = span.makeCurrent()) {
+            answerQuestion(question, conversationId);
+        } catch (Exception e) {
+            RagTracing.recordError(span, e);
+            log.error("Failed to process question", e);
+        } finally {
+            span.end();
+        }
+    }
+    
+    /**
+     * Answers questions over one whole document. The document is sent as a named context,
+     * so the server prefills it once and restores its KV snapshot for every later question.
+     */
+    private void askAboutDocument(Scanner scanner) {
+        System.out.print("📄 Enter the document path: ");
+        java.io.File file = new java.io.File(scanner.nextLine().trim());
+        String contextId = "document:" + file.getAbsolutePath();
+        String context;
         try {
-            System.out.print("❓ Enter your question: ");
+            StringBuilder contextBuilder = new StringBuilder();
+            contextBuilder.append("Document: ").append(file.getName()).append("\n\n");
+            for (var chunk : documentProcessor.processFile(file.getAbsolutePath())) {
+                contextBuilder.append(chunk.getContent()).append("\n\n");
+            }
+            context = contextBuilder.toString();
+            System.out.println("📥 Reading the document into the model...");
+            if (!llmClient.precomputeContext(contextId, context)) {
+                System.out.println("(KV snapshots are disabled; each question re-reads the document)");
+            }
+        } catch (Exception e) {
+            log.error("Failed to load {}", file, e);
+            return;
+        }
+        
+        while (true) {
+            System.out.print("❓ Question about " + file.getName() + " (empty to go back): ");
             String question = scanner.nextLine().trim();
-            
             if (question.isEmpty()) {
-                System.out.println("Please enter a valid question.");
                 return;
             }
-            
-            System.out.println("🔍 Searching for relevant information...");
-            
-            // Search for relevant chunks
-            var relevantChunks = vectorDB.searchSimilarDocuments(question, 5);
-            
-            // Build context from relevant chunks
-            StringBuilder contextBuilder = new StringBuilder();
-            contextBuilder.append("Based on the following information:\n\n");
-            
-            for (var chunk : relevantChunks) {
-                contextBuilder.append("From ").append(chunk.getTitle()).append(":\n");
-                contextBuilder.append(chunk.getContent()).append("\n\n");
+            CancellationToken cancellation = new CancellationToken();
+            questionCancellation = cancellation;
+            try {
+                System.out.println("\n📝 Response:");
+                System.out.println(llmClient.generateWithContext(contextId, context,
+                    "\nUser Question: " + question + "\n\nPlease provide a helpful answer based on the document above:",
+                    cancellation));
+            } catch (Exception e) {
+                log.error("Failed to answer question about {}", file.getName(), e);
+            } finally {
+                questionCancellation = null;
             }
-            
-            contextBuilder.append("Question: ").append(question).append("\n\n");
-            contextBuilder.append("Please provide a comprehensive answer based on the provided information:");
-            
-            String fullPrompt = contextBuilder.toString();
-            
-            System.out.println("🤖 Generating response...");
-            String response = llmClient.generateTextResponse(fullPrompt);
-            
-            System.out.println("\n📝 Response:");
-            System.out.println(response);
-            
-            // Store conversation
-            couchDBClient.storeResponse(conversationId, question, response, relevantChunks);
-            
-            System.out.println("\n📚 Sources:");
-            for (var chunk : relevantChunks) {
-                System.out.println("- " + chunk.getFileName());
+        }
+    }
+    
+    private void answerQuestion(String question, String conversationId) throws Exception {
+        System.out.println("🔍 Searching for relevant information...");
+        
+        // Search for relevant chunks and fit them to the context budget
+        List<EnhancedDocumentProcessor.DocumentChunk> relevantChunks = contextPacker.pack(retrieve(question));
+        
+        // Reuse a cached answer for a semantically equivalent question over the same sources
+        List<Float> questionEmbedding = null;
+        List<String> sourceIds = new ArrayList<>();
+        for (var chunk : relevantChunks) {
+            sourceIds.add(SemanticAnswerCache.sourceId(chunk));
+        }
+        String response = null;
+        List<EnhancedDocumentProcessor.DocumentChunk> sources = relevantChunks;
+        if (answerCache != null) {
+            questionEmbedding = llmServer.getModels().embed(question);
+            response = answerCache.lookup(questionEmbedding, sourceIds);
+        }
+        
+        if (response != null) {
+            System.out.println("♻️ Reusing cached answer for an equivalent question");
+        } else {
+            CitedAnswer answer = generateAnswer(question, relevantChunks);
+            response = answer.getAnswer();
+            if (!answer.getCitedChunks().isEmpty()) {
+                sources = answer.getCitedChunks();
             }
-            
-        } catch (Exception e) {
-            System.err.println("Failed to process question: " + e.getMessage());
-            e.printStackTrace();
+            if (answerCache != null) {
+                answerCache.put(question, questionEmbedding, sourceIds, response);
+            }
+        }
+        
+        System.out.println("\n📝 Response:");
+        System.out.println(response);
+        
+        // Store conversation
+        couchDBClient.storeResponse(conversationId, question, response, sources);
+        
+        System.out.println("\n📚 Sources:");
+        for (var chunk : sources) {
+            System.out.println("- " + chunk.getFileName());
         }
     }
     
+    /**
+     * Retrieves the chunks for a question: the top results directly, or the best of a
+     * larger candidate set when a rerank model is configured.
+     */
+    private List<EnhancedDocumentProcessor.DocumentChunk> retrieve(String question) throws Exception {
+        int topN = Integer.parseInt(config.getProperty("rag.config.rerank.topN", "5"));
+        ModelRegistry models = llmServer.getModels();
+        if (!models.hasRole(ModelRegistry.Role.RERANK)) {
+            return SolrVectorDB.toChunks(vectorDB.search(question, topN));
+        }
+        int candidates = Integer.parseInt(config.getProperty("rag.config.rerank.candidates", "20"));
+        List<EnhancedDocumentProcessor.DocumentChunk> relevantChunks = new ArrayList<>();
+        for (Reranker.ScoredChunk scored : models.rerank(question, SolrVectorDB.toChunks(vectorDB.search(question, candidates)), topN)) {
+            relevantChunks.add(scored.getChunk());
+        }
+        return relevantChunks;
+    }
+    
+    /**
+     * Generates an answer; with structured output enabled it also carries the chunks the
+     * model cited, otherwise no citations.
+     */
+    private CitedAnswer generateAnswer(String question, List<EnhancedDocumentProcessor.DocumentChunk> relevantChunks) throws Exception {
+        String fullPrompt;
+        Span span = RagTracing.tracer().spanBuilder("rag.context_assembly").startSpan();
+        try (Scope scope = span.makeCurrent()) {
+            fullPrompt = structuredOutput
+                ? CitedAnswer.buildPrompt(question, relevantChunks)
+                : buildPrompt(question, relevantChunks);
+            span.setAttribute("rag.chunks", relevantChunks.size());
+            span.setAttribute("rag.prompt.chars", fullPrompt.length());
+        } finally {
+            span.end();
+        }
+        
+        System.out.println("🤖 Generating response...");
+        CancellationToken cancellation = new CancellationToken();
+        questionCancellation = cancellation;
+        try {
+            if (structuredOutput) {
+                return CitedAnswer.fromResponse(
+                    llmClient.generateStructuredResponse(fullPrompt, CitedAnswer.SCHEMA, cancellation), relevantChunks);
+            }
+            return new CitedAnswer(llmClient.generateTextResponse(fullPrompt, cancellation), List.of());
+        } finally {
+            questionCancellation = null;
+        }
+    }
+    
+    /**
+     * Builds the generation prompt from the question and the retrieved chunks.
+     */
+    static String buildPrompt(String question, List<EnhancedDocumentProcessor.DocumentChunk> relevantChunks) {
+        // Build context from relevant chunks
+        StringBuilder contextBuilder = new StringBuilder();
+        contextBuilder.append("Based on the following information:\n\n");
+        
+        for (var chunk : relevantChunks) {
+            contextBuilder.append("From ").append(chunk.getTitle()).append(":\n");
+            contextBuilder.append(chunk.getContent()).append("\n\n");
+        }
+        
+        contextBuilder.append("Question: ").append(question).append("\n\n");
+        contextBuilder.append("Please provide a comprehensive answer based on the provided information:");
+        
+        return contextBuilder.toString();
+    }
+    
     public void shutdown() {
         try {
+            CancellationToken cancellation = questionCancellation;
+            if (cancellation != null) {
+                cancellation.cancel(); // Stop decoding an answer nobody will read
+            }
             if (llmClient != null) {
                 llmClient.close();
             }
+            if (couchDBClient != null) {
+                couchDBClient.close(); // Flushes queued conversation turns
+            }
+            if (httpTransport != null) {
+                httpTransport.close();
+            }
             if (llmServer != null) {
                 llmServer.close();
             }
-            System.out.println("✅ System shutdown complete.");
+            RagTracing.shutdown();
+            log.info("✅ System shutdown complete.");
         } catch (Exception e) {
-            System.err.println("Error during shutdown: " + e.getMessage());
+            log.error("Error during shutdown", e);
         }
     }
     
@@ -202,8 +417,7 @@ public class IntegratedRAGSystem {
             system.run();
             
         } catch (Exception e) {
-            System.err.println("Failed to start application: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Failed to start application", e);
             System.exit(1);
         }
     }
@@ -0,0 +1,206 @@
+package com.notebooklm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControllerTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private AdmissionController admission;
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        if (admission != null) {
+            admission.close();
+        }
+    }
+
+    private AdmissionController controller(int maxConcurrency, int maxQueueDepth, int maxBatchQueueDepth) {
+        Properties config = new Properties();
+        config.setProperty("rag.config.inference.maxConcurrency", String.valueOf(maxConcurrency));
+        config.setProperty("rag.config.inference.maxQueueDepth", String.valueOf(maxQueueDepth));
+        config.setProperty("rag.config.inference.maxBatchQueueDepth", String.valueOf(maxBatchQueueDepth));
+        admission = AdmissionController.fromConfig(config);
+        return admission;
+    }
+
+    private static long in(long seconds) {
+        return System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = in(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Queues a request that records its name once admitted and then releases its slot.
+     */
+    private Future<?> queue(AdmissionController.Priority priority, String name, List<String> admitted) {
+        return executor.submit(() -> {
+            try (AdmissionController.Permit permit = admission.acquire(priority, in(10))) {
+                admitted.add(name);
+            }
+            return null;
+        });
+    }
+
+    @Test
+    void admitsUpToMaxConcurrencyThenQueues() throws Exception {
+        controller(2, 4, 4);
+        AdmissionController.Permit first = admission.acquire(AdmissionController.Priority.INTERACTIVE, in(1));
+        AdmissionController.Permit second = admission.acquire(AdmissionController.Priority.INTERACTIVE, in(1));
+        assertEquals(2, admission.getRunningCount());
+
+        List<String> admitted = new CopyOnWriteArrayList<>();
+        Future<?> waiting = queue(AdmissionController.Priority.INTERACTIVE, "third", admitted);
+        awaitCondition(() -> admission.getQueuedCount() == 1);
+        assertTrue(admitted.isEmpty());
+
+        first.close();
+        waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("third"), admitted);
+        second.close();
+        assertEquals(0, admission.getRunningCount());
+    }
+
+    @Test
+    void interactiveRequestsOvertakeQueuedBatchRequests() throws Exception {
+        controller(1, 4, 4);
+        AdmissionController.Permit running = admission.acquire(AdmissionController.Priority.INTERACTIVE, in(1));
+        List<String> admitted = new CopyOnWriteArrayList<>();
+
+        Future<?> batch1 = queue(AdmissionController.Priority.BATCH, "batch1", admitted);
+        awaitCondition(() -> admission.getBatchQueuedCount() == 1);
+        Future<?> batch2 = queue(AdmissionController.Priority.BATCH, "batch2", admitted);
+        awaitCondition(() -> admission.getBatchQueuedCount() == 2);
+        Future<?> interactive = queue(AdmissionController.Priority.INTERACTIVE, "interactive", admitted);
+        awaitCondition(() -> admission.getQueuedCount() == 1);
+
+        running.close();
+        for (Future<?> request : List.of(batch1, batch2, interactive)) {
+            request.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of("interactive", "batch1", "batch2"), admitted);
+    }
+
+    @Test
+    void batchRequestDoesNotJumpQueuedInteractiveRequest() throws Exception {
+        controller(1, 4, 4);
+        AdmissionController.Permit running = admission.acquire(AdmissionController.Priority.INTERACTIVE, in(1));
+        List<String> admitted = new CopyOnWriteArrayList<>();
+        Future<?> interactive = queue(AdmissionController.Priority.INTERACTIVE, "interactive", admitted);
+        awaitCondition(() -> admission.getQueuedCount() == 1);
+
+        // A free slot alone is not enough while an interactive request waits
+        running.close();
+        interactive.get(5, TimeUnit.SECONDS);
+        try (AdmissionController.Permit batch = admission.acquire(AdmissionController.Priority.BATCH, in(1))) {
+            admitted.add("batch");
+        }
+        assertEquals(List.of("interactive", "batch"), admitted);
+    }
+
+    @Test
+    void shedsRequestsWhenQueueIsFull() throws Exception {
+        controller(1, 1, 1);
+        AdmissionController.Permit running = admission.acquire(AdmissionController.Priority.INTERACTIVE, in(1));
+        queue(AdmissionController.Priority.INTERACTIVE, "queued", new CopyOnWriteArrayList<>());
+        awaitCondition(() -> admission.getQueuedCount() == 1);
+
+        AdmissionController.RejectedException rejected = assertThrows(AdmissionController.RejectedException.class,
+            () -> admission.acquire(AdmissionController.Priority.INTERACTIVE, in(1)));
+        assertEquals(429, rejected.getStatusCode());
+        assertTrue(rejected.getRetryAfterSeconds() >= 1);
+        running.close();
+    }
+
+    @Test
+    void shedsRequestsWhoseDeadlinePassesWhileQueued() throws Exception {
+        controller(1, 4, 4);
+        AdmissionController.Permit running = admission.acquire(AdmissionController.Priority.INTERACTIVE, in(1));
+
+        AdmissionController.RejectedException rejected = assertThrows(AdmissionController.RejectedException.class,
+            () -> admission.acquire(AdmissionController.Priority.BATCH,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50)));
+        assertEquals(503, rejected.getStatusCode());
+        assertEquals(0, admission.getBatchQueuedCount());
+        running.close();
+        assertEquals(0, admission.getRunningCount());
+    }
+
+    @Test
+    void cancelledRequestLeavesTheQueueImmediately() throws Exception {
+        controller(1, 1, 1);
+        AdmissionController.Permit running = admission.acquire(AdmissionController.Priority.INTERACTIVE, in(1));
+        CancellationToken cancellation = new CancellationToken();
+        Future<?> waiting = executor.submit(() ->
+            admission.acquire(AdmissionController.Priority.INTERACTIVE, in(30), cancellation));
+        awaitCondition(() -> admission.getQueuedCount() == 1);
+
+        cancellation.cancel();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, e.getCause());
+        assertEquals(0, admission.getQueuedCount());
+        // The freed queue position is available to a live request
+        List<String> admitted = new CopyOnWriteArrayList<>();
+        Future<?> live = queue(AdmissionController.Priority.INTERACTIVE, "live", admitted);
+        awaitCondition(() -> admission.getQueuedCount() == 1);
+        running.close();
+        live.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("live"), admitted);
+        assertEquals(0, admission.getRunningCount());
+    }
+
+    @Test
+    void alreadyCancelledRequestDoesNotTakeASlot() throws Exception {
+        controller(1, 4, 4);
+        AdmissionController.Permit running = admission.acquire(AdmissionController.Priority.INTERACTIVE, in(1));
+        CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+
+        assertThrows(CancellationException.class,
+            () -> admission.acquire(AdmissionController.Priority.BATCH, in(30), cancellation));
+        assertEquals(0, admission.getBatchQueuedCount());
+        running.close();
+        assertEquals(0, admission.getRunningCount());
+    }
+
+    @Test
+    void closingPermitTwiceReleasesOneSlot() throws Exception {
+        controller(2, 4, 4);
+        AdmissionController.Permit permit = admission.acquire(AdmissionController.Priority.INTERACTIVE, in(1));
+        admission.acquire(AdmissionController.Priority.INTERACTIVE, in(1));
+        permit.close();
+        permit.close();
+        assertEquals(1, admission.getRunningCount());
+    }
+
+    @Test
+    void closeRemovesQueueDepthGauges() {
+        controller(1, 4, 4).close();
+        admission = null;
+        assertFalse(RagMetrics.registry().find("rag.inference.queue.depth").gauges().stream().findAny().isPresent());
+    }
+}
@@ -0,0 +1,108 @@
+package com.notebooklm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CancellationTokenTest {
+
+    @Test
+    void cancelRunsEachCallbackOnce() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger runs = new AtomicInteger();
+        token.onCancel(runs::incrementAndGet);
+
+        token.cancel();
+        token.cancel();
+
+        assertEquals(1, runs.get());
+        assertTrue(token.isCancelled());
+        assertFalse(token.isDeadlineExceeded());
+        CancellationException e = assertThrows(CancellationException.class, token::throwIfCancelled);
+        assertEquals("Cancelled", e.getMessage());
+    }
+
+    @Test
+    void callbackRegisteredAfterCancelRunsImmediately() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        AtomicInteger runs = new AtomicInteger();
+
+        token.onCancel(runs::incrementAndGet);
+
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void removedCallbackDoesNotRun() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger runs = new AtomicInteger();
+        Runnable callback = runs::incrementAndGet;
+        token.onCancel(callback);
+        token.removeCallback(callback);
+
+        token.cancel();
+
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void passedDeadlineCountsAsCancelledWithoutRunningCallbacks() {
+        CancellationToken token = new CancellationToken(System.nanoTime() - 1);
+        AtomicInteger runs = new AtomicInteger();
+        token.onCancel(runs::incrementAndGet);
+
+        assertTrue(token.isCancelled());
+        assertTrue(token.isDeadlineExceeded());
+        CancellationException e = assertThrows(CancellationException.class, token::throwIfCancelled);
+        assertEquals("Deadline exceeded", e.getMessage());
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void tokenWithFutureDeadlineIsNotCancelled() {
+        CancellationToken token = CancellationToken.withTimeout(60000);
+
+        assertFalse(token.isCancelled());
+        assertDoesNotThrow(token::throwIfCancelled);
+    }
+
+    @Test
+    void concurrentCancelAndRegisterRunCallbackExactlyOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 500; i++) {
+                CancellationToken token = new CancellationToken();
+                AtomicInteger runs = new AtomicInteger();
+                CountDownLatch start = new CountDownLatch(1);
+                var cancel = executor.submit(() -> {
+                    start.await();
+                    token.cancel();
+                    return null;
+                });
+                var register = executor.submit(() -> {
+                    start.await();
+                    token.onCancel(runs::incrementAndGet);
+                    return null;
+                });
+                start.countDown();
+                cancel.get(5, TimeUnit.SECONDS);
+                register.get(5, TimeUnit.SECONDS);
+                assertEquals(1, runs.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.notebooklm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContextPackerTest {
+    // One token per word keeps the budgets below easy to follow; the header "From a.txt (chunk 0):" is four
+    private static int words(String text) {
+        String stripped = text.strip();
+        return stripped.isEmpty() ? 0 : stripped.split("\\s+").length;
+    }
+
+    private static EnhancedDocumentProcessor.DocumentChunk chunk(String fileName, int index, String content) {
+        return new EnhancedDocumentProcessor.DocumentChunk("/docs/" + fileName, fileName, content, index);
+    }
+
+    private static List<String> contents(List<EnhancedDocumentProcessor.DocumentChunk> chunks) {
+        return chunks.stream().map(EnhancedDocumentProcessor.DocumentChunk::getContent).toList();
+    }
+
+    @Test
+    void keepsChunksThatFitInRelevanceOrder() {
+        ContextPacker packer = new ContextPacker(ContextPackerTest::words, 100, 2);
+
+        List<EnhancedDocumentProcessor.DocumentChunk> packed = packer.pack(List.of(
+            chunk("b.txt", 3, "Second source sentence one. Sentence two. "),
+            chunk("a.txt", 0, "First source text.")));
+
+        assertEquals(List.of("Second source sentence one. Sentence two.", "First source text."), contents(packed));
+        assertEquals("b.txt (chunk 3)", packed.get(0).getTitle());
+        assertEquals("/docs/a.txt", packed.get(1).getFilePath());
+    }
+
+    @Test
+    void dropsSentencesAlreadyCoveredByABetterChunk() {
+        ContextPacker packer = new ContextPacker(ContextPackerTest::words, 100, 2);
+        String overlap = "The overlap between neighbouring chunks repeats this sentence. ";
+
+        List<EnhancedDocumentProcessor.DocumentChunk> packed = packer.pack(List.of(
+            chunk("a.txt", 0, "Opening of the document. " + overlap),
+            chunk("a.txt", 1, overlap + "Continuation of the document."),
+            chunk("a.txt", 2, overlap)));
+
+        assertEquals(List.of(
+            "Opening of the document. " + overlap.strip(),
+            "Continuation of the document."), contents(packed));
+    }
+
+    @Test
+    void keepsShortSentencesEvenWhenRepeated() {
+        ContextPacker packer = new ContextPacker(ContextPackerTest::words, 100, 1);
+
+        List<EnhancedDocumentProcessor.DocumentChunk> packed = packer.pack(List.of(
+            chunk("a.txt", 0, "Yes. First answer here."),
+            chunk("b.txt", 0, "Yes. Second answer here.")));
+
+        assertEquals(List.of("Yes. First answer here.", "Yes. Second answer here."), contents(packed));
+    }
+
+    @Test
+    void cutsTheLastChunkAtASentenceBoundary() {
+        // 4 header + 4 words for the first chunk leaves 8: header plus the first sentence of the second
+        ContextPacker packer = new ContextPacker(ContextPackerTest::words, 16, 2);
+
+        List<EnhancedDocumentProcessor.DocumentChunk> packed = packer.pack(List.of(
+            chunk("a.txt", 0, "One two three four."),
+            chunk("b.txt", 0, "Five six seven eight. Nine ten eleven twelve.")));
+
+        assertEquals(List.of("One two three four.", "Five six seven eight."), contents(packed));
+        int used = packed.stream().mapToInt(c -> words("From " + c.getTitle() + ":\n") + words(c.getContent())).sum();
+        assertTrue(used <= 16);
+    }
+
+    @Test
+    void skipsFragmentsBelowTheMinimumButTriesLaterChunks() {
+        // After the first chunk 8 tokens remain: the long chunk would be cut to its 2-word first
+        // sentence, below the minimum of 3, but the short chunk after it fits whole
+        ContextPacker packer = new ContextPacker(ContextPackerTest::words, 16, 3);
+
+        List<EnhancedDocumentProcessor.DocumentChunk> packed = packer.pack(List.of(
+            chunk("a.txt", 0, "One two three four."),
+            chunk("b.txt", 0, "Tiny bit. A very long sentence that cannot fit here."),
+            chunk("c.txt", 0, "Short one here.")));
+
+        assertEquals(List.of("One two three four.", "Short one here."), contents(packed));
+    }
+
+    @Test
+    void dropsAChunkTooLargeForAnyFragmentAndPacksASmallerOne() {
+        ContextPacker packer = new ContextPacker(ContextPackerTest::words, 6, 2);
+
+        List<EnhancedDocumentProcessor.DocumentChunk> packed = packer.pack(List.of(
+            chunk("a.txt", 0, "One two three four."),
+            chunk("b.txt", 0, "Five six.")));
+
+        assertEquals(List.of("Five six."), contents(packed));
+    }
+
+    @Test
+    void stopsAddingOnceTheBudgetIsSpent() {
+        ContextPacker packer = new ContextPacker(ContextPackerTest::words, 8, 2);
+
+        List<EnhancedDocumentProcessor.DocumentChunk> packed = packer.pack(List.of(
+            chunk("a.txt", 0, "One two three four."),
+            chunk("b.txt", 0, "Five six.")));
+
+        assertEquals(List.of("One two three four."), contents(packed));
+    }
+}
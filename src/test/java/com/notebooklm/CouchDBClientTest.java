@@ -0,0 +1,82 @@
+package com.notebooklm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CouchDBClientTest {
+    private FakeCouchDB couch;
+    private CouchDBClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        couch = new FakeCouchDB();
+        client = new CouchDBClient(couch.getUrl(), "test", "admin", "secret");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        couch.close();
+    }
+
+    @Test
+    void flushWaitsUntilQueuedTurnsAreWritten() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            client.storeConversationAsync("s", "question " + i, "answer " + i, List.of(), "granite");
+        }
+
+        assertTrue(client.flush(5, TimeUnit.SECONDS));
+        assertEquals(0, client.getPendingWriteCount());
+        assertEquals(5, couch.documentsOfType("conversation").size());
+    }
+
+    @Test
+    void retriesFailedBatchUntilCouchDBRecovers() throws Exception {
+        couch.failBulkWrites(2);
+        client.storeConversationAsync("s", "question", "answer", List.of("doc.pdf"), "granite");
+
+        assertTrue(client.flush(10, TimeUnit.SECONDS));
+        assertEquals(1, couch.documentsOfType("conversation").size());
+        assertEquals(3, couch.getBulkRequestCount());
+    }
+
+    @Test
+    void closeWritesQueuedTurnsAndRejectsLaterOnes() throws Exception {
+        client.storeConversationAsync("s", "question", "answer", List.of(), "granite");
+        client.close();
+
+        assertEquals(1, couch.documentsOfType("conversation").size());
+        assertThrows(IllegalStateException.class,
+            () -> client.storeConversationAsync("s", "late", "answer", List.of(), "granite"));
+    }
+
+    @Test
+    void searchMatchesEveryWordAcrossPages() throws Exception {
+        client.storeConversation("s", "How does Solr rank chunks?", "By BM25 and vectors.", List.of(), "granite");
+        client.storeConversation("s", "What is CouchDB?", "A document store.", List.of(), "granite");
+        client.storeConversation("s", "Does solr support dense vectors?", "Yes, through HNSW.", List.of(), "granite");
+        client.storeConversation("s", "Ranking in Solr", "Solr uses BM25 ranking.", List.of(), "granite");
+
+        CouchDBClient.ConversationSearchPage first = client.searchConversations("SOLR", 2, null);
+        assertEquals(2, first.getTurns().size());
+        assertTrue(first.hasMore());
+        CouchDBClient.ConversationSearchPage second = client.searchConversations("SOLR", 2, first.getBookmark());
+        assertEquals(1, second.getTurns().size());
+        assertFalse(second.hasMore());
+
+        List<CouchDBClient.ConversationTurn> both = client.searchConversations("solr vectors", 10);
+        assertEquals(2, both.size());
+        assertTrue(both.stream().allMatch(turn -> CouchDBClient.terms(turn.getQuestion() + " " + turn.getResponse())
+            .containsAll(List.of("solr", "vectors"))));
+        assertTrue(client.searchConversations("sol", 10).isEmpty());
+    }
+}
@@ -0,0 +1,257 @@
+package com.notebooklm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory stand-in for the parts of the CouchDB HTTP API that CouchDBClient uses:
+ * documents, _bulk_docs and the views. Views are emulated in Java rather than by running
+ * their map functions.
+ */
+class FakeCouchDB implements AutoCloseable {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final Map<String, ObjectNode> docs = new LinkedHashMap<>();
+    private final AtomicInteger bulkFailures = new AtomicInteger();
+    private final AtomicInteger bulkRequests = new AtomicInteger();
+    private boolean databaseCreated;
+
+    FakeCouchDB() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Makes the next count _bulk_docs requests fail with 503.
+     */
+    void failBulkWrites(int count) {
+        bulkFailures.set(count);
+    }
+
+    int getBulkRequestCount() {
+        return bulkRequests.get();
+    }
+
+    synchronized List<ObjectNode> documentsOfType(String type) {
+        List<ObjectNode> matches = new ArrayList<>();
+        for (ObjectNode doc : docs.values()) {
+            if (type.equals(doc.path("type").asText())) {
+                matches.add(doc);
+            }
+        }
+        return matches;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().substring(1).split("/", 2);
+            String rest = path.length > 1 ? URLDecoder.decode(path[1], StandardCharsets.UTF_8) : "";
+            byte[] body = exchange.getRequestBody().readAllBytes();
+
+            if (rest.isEmpty()) {
+                handleDatabase(exchange, method);
+            } else if (rest.equals("_bulk_docs")) {
+                handleBulkDocs(exchange, body);
+            } else if (rest.contains("/_view/")) {
+                handleView(exchange, rest);
+            } else {
+                handleDocument(exchange, method, rest, body);
+            }
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "{\"error\":\"" + e.getClass().getSimpleName() + "\"}");
+        }
+    }
+
+    private synchronized void handleDatabase(HttpExchange exchange, String method) throws IOException {
+        if (method.equals("PUT")) {
+            databaseCreated = true;
+            respond(exchange, 201, "{\"ok\":true}");
+        } else if (method.equals("HEAD")) {
+            exchange.sendResponseHeaders(databaseCreated ? 200 : 404, -1);
+            exchange.close();
+        } else {
+            respond(exchange, 200, "{\"db_name\":\"test\",\"doc_count\":" + docs.size()
+                + ",\"doc_del_count\":0,\"disk_size\":0}");
+        }
+    }
+
+    private void handleBulkDocs(HttpExchange exchange, byte[] body) throws IOException {
+        bulkRequests.incrementAndGet();
+        if (bulkFailures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            respond(exchange, 503, "{\"error\":\"unavailable\"}");
+            return;
+        }
+        ArrayNode results = objectMapper.createArrayNode();
+        synchronized (this) {
+            for (JsonNode doc : objectMapper.readTree(body).get("docs")) {
+                docs.put(doc.get("_id").asText(), (ObjectNode) doc);
+                results.addObject().put("ok", true).put("id", doc.get("_id").asText());
+            }
+        }
+        respond(exchange, 201, objectMapper.writeValueAsString(results));
+    }
+
+    private synchronized void handleView(HttpExchange exchange, String rest) throws IOException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        List<ObjectNode> rows = new ArrayList<>();
+        if (rest.endsWith("/by_term")) {
+            for (ObjectNode doc : documentsOfType("conversation")) {
+                String text = doc.path("question").asText() + " " + doc.path("response").asText();
+                for (String term : CouchDBClient.terms(text)) {
+                    rows.add(row(doc, objectMapper.createArrayNode().add(term).add(doc.path("timestamp").asText())));
+                }
+            }
+        } else {
+            // _design/<name>/_view/by_timestamp: conversations or answer_cache entries by time
+            String type = rest.startsWith("_design/conversations/") ? "conversation" : "answer_cache";
+            for (ObjectNode doc : documentsOfType(type)) {
+                rows.add(row(doc, doc.path("timestamp")));
+            }
+        }
+
+        boolean descending = Boolean.parseBoolean(query.get("descending"));
+        Comparator<ObjectNode> order = Comparator.comparing((ObjectNode row) -> row.get("key"), FakeCouchDB::collate)
+            .thenComparing(row -> row.get("id").asText());
+        rows.sort(descending ? order.reversed() : order);
+
+        ObjectNode startRow = null;
+        if (query.containsKey("startkey")) {
+            startRow = objectMapper.createObjectNode();
+            startRow.set("key", objectMapper.readTree(query.get("startkey")));
+            startRow.put("id", query.getOrDefault("startkey_docid", descending ? "\uffff" : ""));
+        }
+        JsonNode endKey = query.containsKey("endkey") ? objectMapper.readTree(query.get("endkey")) : null;
+        int skip = Integer.parseInt(query.getOrDefault("skip", "0"));
+        int limit = Integer.parseInt(query.getOrDefault("limit", "1000"));
+
+        ObjectNode response = objectMapper.createObjectNode();
+        ArrayNode selected = response.putArray("rows");
+        for (ObjectNode row : rows) {
+            if (startRow != null && (descending ? order.compare(row, startRow) > 0 : order.compare(row, startRow) < 0)) {
+                continue;
+            }
+            if (endKey != null && (descending ? collate(row.get("key"), endKey) < 0 : collate(row.get("key"), endKey) > 0)) {
+                break;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (selected.size() == limit) {
+                break;
+            }
+            selected.add(row);
+        }
+        respond(exchange, 200, objectMapper.writeValueAsString(response));
+    }
+
+    private ObjectNode row(ObjectNode doc, JsonNode key) {
+        ObjectNode row = objectMapper.createObjectNode();
+        row.put("id", doc.get("_id").asText());
+        row.set("key", key);
+        row.set("doc", doc);
+        return row;
+    }
+
+    /**
+     * Orders view keys as CouchDB does for the types used here: null, strings, arrays, objects.
+     */
+    private static int collate(JsonNode a, JsonNode b) {
+        int rankA = rank(a);
+        int rankB = rank(b);
+        if (rankA != rankB) {
+            return Integer.compare(rankA, rankB);
+        }
+        if (a.isTextual()) {
+            return a.asText().compareTo(b.asText());
+        }
+        if (a.isArray()) {
+            for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+                int c = collate(a.get(i), b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return Integer.compare(a.size(), b.size());
+        }
+        return 0;
+    }
+
+    private static int rank(JsonNode node) {
+        if (node == null || node.isNull()) {
+            return 0;
+        }
+        return node.isTextual() ? 1 : node.isArray() ? 2 : 3;
+    }
+
+    private synchronized void handleDocument(HttpExchange exchange, String method, String id, byte[] body) throws IOException {
+        switch (method) {
+            case "PUT" -> {
+                ObjectNode doc = (ObjectNode) objectMapper.readTree(body);
+                doc.put("_id", id);
+                doc.put("_rev", "1-" + Integer.toHexString(doc.hashCode()));
+                docs.put(id, doc);
+                respond(exchange, 201, "{\"ok\":true,\"id\":\"" + id + "\"}");
+            }
+            case "DELETE" -> {
+                docs.remove(id);
+                respond(exchange, 200, "{\"ok\":true}");
+            }
+            default -> {
+                ObjectNode doc = docs.get(id);
+                if (doc == null) {
+                    respond(exchange, 404, "{\"error\":\"not_found\"}");
+                } else {
+                    respond(exchange, 200, objectMapper.writeValueAsString(doc));
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new LinkedHashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                String[] keyValue = pair.split("=", 2);
+                query.put(keyValue[0], keyValue.length > 1 ? URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8) : "");
+            }
+        }
+        return query;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
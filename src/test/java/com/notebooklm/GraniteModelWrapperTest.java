@@ -0,0 +1,115 @@
+package com.notebooklm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GraniteModelWrapperTest {
+    private GraniteModelWrapper model;
+
+    @BeforeEach
+    void setUp() {
+        model = new GraniteModelWrapper(null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        model.close();
+    }
+
+    private static double count(String name) {
+        var counter = RagMetrics.registry().find(name).tag("mode", "prompt_lookup").counter();
+        return counter != null ? counter.count() : 0;
+    }
+
+    @Test
+    void promptLookupProducesTheStandardOutputAndRecordsDrafts() {
+        String standard = model.generateResponse("question", new CancellationToken(),
+            GraniteModelWrapper.DecodingMode.STANDARD);
+        double drafted = count("rag.llm.speculative.drafted.tokens");
+        double accepted = count("rag.llm.speculative.accepted.tokens");
+
+        // A context that quotes the answer gives the drafter n-grams to match
+        String lookup = model.generateResponse("Context: " + standard + "\nQuestion: question",
+            new CancellationToken(), GraniteModelWrapper.DecodingMode.PROMPT_LOOKUP);
+
+        assertEquals(standard, lookup);
+        assertTrue(count("rag.llm.speculative.drafted.tokens") > drafted);
+        assertTrue(count("rag.llm.speculative.accepted.tokens") > accepted);
+    }
+
+    @Test
+    void warmUpStaysOutOfRequestMetrics() {
+        long generations = RagMetrics.timer("rag.llm.decode").count();
+        long embeddings = RagMetrics.timer("rag.embedding").count();
+        long warmUps = RagMetrics.timer("rag.llm.warmup").count();
+
+        model.warmUp();
+
+        assertEquals(generations, RagMetrics.timer("rag.llm.decode").count());
+        assertEquals(embeddings, RagMetrics.timer("rag.embedding").count());
+        assertEquals(warmUps + 1, RagMetrics.timer("rag.llm.warmup").count());
+    }
+
+    private static JsonNode schema(String type) throws Exception {
+        return new ObjectMapper().readTree("{\"type\": \"" + type + "\"}");
+    }
+
+    private static GraniteModelWrapper modelWithGrammarCache(int size) {
+        Properties config = new Properties();
+        config.setProperty("rag.config.model.grammarCacheSize", String.valueOf(size));
+        return new GraniteModelWrapper(null, GraniteModelWrapper.ModelSettings.fromConfig(config),
+            new GraniteModelWrapper.DecodingSettings());
+    }
+
+    @Test
+    void cachedGrammarIsSharedBetweenRequests() throws Exception {
+        try (GraniteModelWrapper.GrammarLease first = model.compileGrammar(schema("object"));
+             GraniteModelWrapper.GrammarLease second = model.compileGrammar(schema("object"))) {
+            assertSame(first.get(), second.get());
+        }
+    }
+
+    @Test
+    void evictedGrammarStaysAliveUntilItsLeaseCloses() throws Exception {
+        GraniteModelWrapper small = modelWithGrammarCache(1);
+        try {
+            GraniteModelWrapper.GrammarLease queued = small.compileGrammar(schema("object"));
+            GraniteModelWrapper.GrammarLease other = small.compileGrammar(schema("string"));
+            other.close();
+
+            // Evicted by the second schema, but a queued request still holds it
+            assertFalse(queued.get().isFreed());
+            queued.close();
+            queued.close();
+            assertTrue(queued.get().isFreed());
+            assertFalse(other.get().isFreed());
+        } finally {
+            small.close();
+        }
+    }
+
+    @Test
+    void closingTheModelFreesGrammarsOnlyAfterTheirLeases() throws Exception {
+        GraniteModelWrapper closing = modelWithGrammarCache(4);
+        GraniteModelWrapper.GrammarLease held = closing.compileGrammar(schema("object"));
+        GraniteModelWrapper.GrammarLease idle = closing.compileGrammar(schema("string"));
+        idle.close();
+
+        closing.close();
+
+        assertTrue(idle.get().isFreed());
+        assertFalse(held.get().isFreed());
+        held.close();
+        assertTrue(held.get().isFreed());
+    }
+}
@@ -0,0 +1,94 @@
+package com.notebooklm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InternalLLMClientTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private HttpServer server;
+    private final CompletableFuture<String> postedRequestId = new CompletableFuture<>();
+    private final CompletableFuture<String> cancelledRequestId = new CompletableFuture<>();
+    private final CountDownLatch releaseGeneration = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // A generation endpoint that never answers until the test ends, and records cancels
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/api/generate", exchange -> {
+            if (exchange.getRequestMethod().equals("DELETE")) {
+                // Slow enough that a fire-and-forget cancel would still be in flight at close()
+                sleep(300);
+                cancelledRequestId.complete(exchange.getRequestURI().getQuery().substring("id=".length()));
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                postedRequestId.complete(objectMapper.readTree(exchange.getRequestBody()).get("request_id").asText());
+                awaitRelease();
+                exchange.sendResponseHeaders(503, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseGeneration.countDown();
+        server.stop(0);
+    }
+
+    private void awaitRelease() {
+        try {
+            releaseGeneration.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void cancelIsDeliveredBeforeCloseReturns() throws Exception {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/generate";
+        InternalLLMClient client = new InternalLLMClient(new HttpTransport(new HttpTransport.Settings()), url);
+        CancellationToken cancellation = new CancellationToken();
+        CompletableFuture<String> generation = CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.generateTextResponse("question", cancellation);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        String requestId = postedRequestId.get(5, TimeUnit.SECONDS);
+
+        cancellation.cancel();
+        client.close();
+
+        assertTrue(cancelledRequestId.isDone(), "cancel not delivered before close() returned");
+        assertEquals(requestId, cancelledRequestId.get());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> generation.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, e.getCause().getCause());
+    }
+}
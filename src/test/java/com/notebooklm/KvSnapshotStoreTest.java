@@ -0,0 +1,94 @@
+package com.notebooklm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KvSnapshotStoreTest {
+    @TempDir
+    Path directory;
+
+    private static boolean write(KvSnapshotStore store, String name, String context, byte[] state) throws Exception {
+        Path tempFile = store.newTempFile(name);
+        Files.write(tempFile, state);
+        return store.commit(name, KvSnapshotStore.hash(context), 42, tempFile);
+    }
+
+    @Test
+    void findsCommittedSnapshotForTheSameContext() throws Exception {
+        KvSnapshotStore store = new KvSnapshotStore(directory, "granite.gguf");
+        assertTrue(write(store, "notebook/1", "the context", new byte[] {1, 2, 3}));
+
+        KvSnapshotStore.Snapshot snapshot = new KvSnapshotStore(directory, "granite.gguf")
+            .find("notebook/1", KvSnapshotStore.hash("the context"));
+        assertNotNull(snapshot);
+        assertEquals(42, snapshot.getTokenCount());
+        assertEquals(3, snapshot.getData().remaining());
+        assertEquals(2, snapshot.getData().get(1));
+    }
+
+    @Test
+    void ignoresSnapshotOfEditedContextOrAnotherModel() throws Exception {
+        KvSnapshotStore store = new KvSnapshotStore(directory, "granite.gguf");
+        write(store, "notebook", "the context", new byte[] {1});
+
+        assertNull(store.find("notebook", KvSnapshotStore.hash("the edited context")));
+        assertNull(new KvSnapshotStore(directory, "other.gguf").find("notebook", KvSnapshotStore.hash("the context")));
+        assertNull(store.find("missing", KvSnapshotStore.hash("the context")));
+    }
+
+    @Test
+    void discardsEmptyState() throws Exception {
+        KvSnapshotStore store = new KvSnapshotStore(directory, "granite.gguf");
+        Path tempFile = store.newTempFile("notebook");
+
+        assertFalse(store.commit("notebook", KvSnapshotStore.hash("the context"), 42, tempFile));
+        assertFalse(Files.exists(tempFile));
+        assertNull(store.find("notebook", KvSnapshotStore.hash("the context")));
+    }
+
+    @Test
+    void recommitReplacesMappedSnapshot() throws Exception {
+        KvSnapshotStore store = new KvSnapshotStore(directory, "granite.gguf");
+        write(store, "notebook", "version 1", new byte[] {1});
+        assertNotNull(store.find("notebook", KvSnapshotStore.hash("version 1")));
+
+        write(store, "notebook", "version 2", new byte[] {2, 2});
+
+        assertNull(store.find("notebook", KvSnapshotStore.hash("version 1")));
+        KvSnapshotStore.Snapshot snapshot = store.find("notebook", KvSnapshotStore.hash("version 2"));
+        assertNotNull(snapshot);
+        assertEquals(2, snapshot.getData().remaining());
+    }
+
+    @Test
+    void configuredStoreIgnoresSnapshotsOfAReplacedModelFile() throws Exception {
+        Properties config = new Properties();
+        config.setProperty("rag.config.kvSnapshots.enabled", "true");
+        config.setProperty("rag.config.kvSnapshots.dir", directory.resolve("snapshots").toString());
+        Path model = Files.write(directory.resolve("granite.gguf"), new byte[] {1});
+        write(KvSnapshotStore.fromConfig(config, model.toString()), "notebook", "the context", new byte[] {1});
+        assertNotNull(KvSnapshotStore.fromConfig(config, model.toString()).find("notebook", KvSnapshotStore.hash("the context")));
+
+        // Same file name, different quantization
+        Files.write(model, new byte[] {1, 2});
+
+        assertNull(KvSnapshotStore.fromConfig(config, model.toString()).find("notebook", KvSnapshotStore.hash("the context")));
+    }
+
+    @Test
+    void hashDistinguishesContexts() {
+        assertEquals(KvSnapshotStore.hash("a"), KvSnapshotStore.hash("a"));
+        assertNotEquals(KvSnapshotStore.hash("a"), KvSnapshotStore.hash("b"));
+    }
+}
@@ -0,0 +1,173 @@
+package com.notebooklm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoraAdaptersTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private LoraAdapters adaptersWith(String... names) throws Exception {
+        LoraAdapters adapters = new LoraAdapters(1L, directory);
+        for (String name : names) {
+            Files.write(directory.resolve(name + ".gguf"), new byte[] {1});
+            adapters.load(name, name + ".gguf", 1.0f);
+        }
+        return adapters;
+    }
+
+    /**
+     * Starts a generation that records its adapter once admitted and holds the lease until released.
+     */
+    private Future<LoraAdapters.Lease> start(LoraAdapters adapters, String name, List<String> order) {
+        return executor.submit(() -> {
+            LoraAdapters.Lease lease = adapters.acquire(name, new CancellationToken());
+            order.add(name != null ? name : "base");
+            return lease;
+        });
+    }
+
+    private static void assertStillWaiting(Future<?> future) {
+        assertThrows(TimeoutException.class, () -> future.get(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void runtimeLoadsNeedTheAdapterDirectory() throws Exception {
+        Path adapter = Files.write(directory.resolve("tenant.gguf"), new byte[] {1});
+        LoraAdapters withoutDirectory = new LoraAdapters(1L, null);
+
+        assertThrows(IllegalArgumentException.class, () -> withoutDirectory.load("tenant", adapter.toString(), 1.0f));
+
+        Properties config = new Properties();
+        config.setProperty("rag.config.lora.adapters", "tenant=" + adapter + ":0.5");
+        withoutDirectory.loadFromConfig(config);
+        assertTrue(withoutDirectory.contains("tenant"));
+        assertEquals(0.5f, withoutDirectory.list().get(0).getScale());
+    }
+
+    @Test
+    void runtimeLoadsStayInsideTheAdapterDirectory() throws Exception {
+        Path outside = Files.write(directory.resolveSibling(directory.getFileName() + "-outside.gguf"), new byte[] {1});
+        try {
+            LoraAdapters adapters = new LoraAdapters(1L, directory);
+
+            assertThrows(IllegalArgumentException.class, () -> adapters.load("escape", "../" + outside.getFileName(), 1.0f));
+            assertThrows(IllegalArgumentException.class, () -> adapters.load("absolute", outside.toString(), 1.0f));
+            assertFalse(adapters.contains("escape"));
+        } finally {
+            Files.deleteIfExists(outside);
+        }
+    }
+
+    @Test
+    void switchWaitsForRunningGenerationsToDrain() throws Exception {
+        LoraAdapters adapters = adaptersWith("legal", "medical");
+        List<String> order = new CopyOnWriteArrayList<>();
+        LoraAdapters.Lease first = start(adapters, "legal", order).get(5, TimeUnit.SECONDS);
+        LoraAdapters.Lease second = start(adapters, "legal", order).get(5, TimeUnit.SECONDS);
+
+        Future<LoraAdapters.Lease> medical = start(adapters, "medical", order);
+        assertStillWaiting(medical);
+        first.close();
+        assertStillWaiting(medical);
+        second.close();
+
+        medical.get(5, TimeUnit.SECONDS).close();
+        assertEquals(List.of("legal", "legal", "medical"), order);
+    }
+
+    @Test
+    void waitingSwitchHoldsBackNewArrivalsForTheActiveAdapter() throws Exception {
+        LoraAdapters adapters = adaptersWith("legal", "medical");
+        List<String> order = new CopyOnWriteArrayList<>();
+        LoraAdapters.Lease running = start(adapters, "legal", order).get(5, TimeUnit.SECONDS);
+        Future<LoraAdapters.Lease> medical = start(adapters, "medical", order);
+        assertStillWaiting(medical);
+
+        // Would join the running adapter, but must not starve the waiting switch
+        Future<LoraAdapters.Lease> lateLegal = start(adapters, "legal", order);
+        assertStillWaiting(lateLegal);
+
+        running.close();
+        LoraAdapters.Lease medicalLease = medical.get(5, TimeUnit.SECONDS);
+        assertStillWaiting(lateLegal);
+        medicalLease.close();
+        lateLegal.get(5, TimeUnit.SECONDS).close();
+        assertEquals(List.of("legal", "medical", "legal"), order);
+    }
+
+    @Test
+    void waitersSwitchingToTheSameAdapterRunTogether() throws Exception {
+        LoraAdapters adapters = adaptersWith("legal", "medical");
+        List<String> order = new CopyOnWriteArrayList<>();
+        LoraAdapters.Lease running = start(adapters, "legal", order).get(5, TimeUnit.SECONDS);
+        Future<LoraAdapters.Lease> first = start(adapters, "medical", order);
+        Future<LoraAdapters.Lease> second = start(adapters, "medical", order);
+        assertStillWaiting(first);
+        assertStillWaiting(second);
+
+        running.close();
+
+        // Once one of them applies the adapter the other joins it rather than waiting on itself
+        LoraAdapters.Lease firstLease = first.get(5, TimeUnit.SECONDS);
+        LoraAdapters.Lease secondLease = second.get(5, TimeUnit.SECONDS);
+        firstLease.close();
+        secondLease.close();
+        assertEquals(List.of("legal", "medical", "medical"), order);
+    }
+
+    @Test
+    void sameAdapterRunsConcurrentlyWhenNoSwitchWaits() throws Exception {
+        LoraAdapters adapters = adaptersWith("legal");
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        LoraAdapters.Lease first = start(adapters, "legal", order).get(5, TimeUnit.SECONDS);
+        LoraAdapters.Lease second = start(adapters, "legal", order).get(5, TimeUnit.SECONDS);
+
+        first.close();
+        second.close();
+        // Closing twice must not release another generation's slot
+        second.close();
+        start(adapters, null, order).get(5, TimeUnit.SECONDS).close();
+        assertEquals(List.of("legal", "legal", "base"), order);
+    }
+
+    @Test
+    void rejectsUnknownAdaptersAndCancelledWaits() throws Exception {
+        LoraAdapters adapters = adaptersWith("legal", "medical");
+        assertThrows(IllegalArgumentException.class, () -> adapters.acquire("unknown", new CancellationToken()));
+
+        LoraAdapters.Lease running = adapters.acquire("legal", new CancellationToken());
+        CancellationToken cancellation = CancellationToken.withTimeout(100);
+        assertThrows(CancellationException.class, () -> adapters.acquire("medical", cancellation));
+
+        // The abandoned switch no longer holds back the running adapter
+        start(adapters, "legal", new CopyOnWriteArrayList<>()).get(5, TimeUnit.SECONDS).close();
+        running.close();
+    }
+}
@@ -0,0 +1,113 @@
+package com.notebooklm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelRegistryTest {
+    private static final long MB = 1L << 20;
+
+    @TempDir
+    Path dir;
+    private ModelRegistry registry;
+
+    @AfterEach
+    void tearDown() {
+        if (registry != null) {
+            registry.close();
+        }
+    }
+
+    /**
+     * An empty chat model with a one-cell context (well under 1 MB resident) and three 1 MB
+     * rerank models, whose resident size is their file size, within a 3 MB budget: any two
+     * rerank models fit beside the chat model, the third forces an eviction.
+     */
+    private ModelRegistry registry() throws IOException {
+        Properties config = new Properties();
+        config.setProperty("rag.config.models", "chat,r1,r2,r3");
+        config.setProperty("rag.config.models.chat.role", "chat");
+        config.setProperty("rag.config.models.chat.path", Files.createFile(dir.resolve("chat.gguf")).toString());
+        for (String name : new String[] {"r1", "r2", "r3"}) {
+            config.setProperty("rag.config.models." + name + ".role", "rerank");
+            config.setProperty("rag.config.models." + name + ".path",
+                Files.write(dir.resolve(name + ".gguf"), new byte[(int) MB]).toString());
+        }
+        config.setProperty("rag.config.models.memoryBudgetMb", "3");
+        config.setProperty("rag.config.model.contextSize", "1");
+        registry = ModelRegistry.fromConfig(config);
+        return registry;
+    }
+
+    private Reranker use(String name) {
+        try (ModelRegistry.Lease lease = registry.acquire(ModelRegistry.Role.RERANK, name)) {
+            return lease.get(Reranker.class);
+        }
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedIdleModel() throws IOException {
+        registry();
+        Reranker r1 = use("r1");
+        Reranker r2 = use("r2");
+        assertSame(r1, use("r1"));
+
+        use("r3");
+
+        assertSame(r1, use("r1"));
+        assertNotSame(r2, use("r2"), "r2 was least recently used and should have been reloaded");
+        assertTrue(registry.getResidentBytes() <= 3 * MB);
+    }
+
+    @Test
+    void leasedModelsAreNotEvicted() throws IOException {
+        registry();
+        try (ModelRegistry.Lease first = registry.acquire(ModelRegistry.Role.RERANK, "r1");
+             ModelRegistry.Lease second = registry.acquire(ModelRegistry.Role.RERANK, "r2")) {
+            Reranker r1 = first.get(Reranker.class);
+
+            // Everything resident is leased, so r3 loads over budget instead of waiting
+            use("r3");
+
+            assertTrue(registry.getResidentBytes() > 3 * MB);
+            assertSame(r1, first.get(Reranker.class));
+            assertSame(r1, use("r1"));
+        }
+    }
+
+    @Test
+    void defaultChatModelIsNeverEvicted() throws IOException {
+        registry();
+        GraniteModelWrapper chat = registry.getDefaultChatModel();
+
+        use("r1");
+        use("r2");
+        use("r3");
+        use("r1");
+
+        assertSame(chat, registry.getDefaultChatModel());
+    }
+
+    @Test
+    void closeUnloadsEveryModel() throws IOException {
+        registry();
+        use("r1");
+        use("r2");
+
+        assertTrue(registry.getResidentBytes() > 2 * MB);
+
+        registry.close();
+
+        assertEquals(0L, registry.getResidentBytes());
+    }
+}
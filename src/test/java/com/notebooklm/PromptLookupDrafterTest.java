@@ -0,0 +1,57 @@
+package com.notebooklm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PromptLookupDrafterTest {
+
+    @Test
+    void draftsNothingWithoutAnEarlierOccurrence() {
+        PromptLookupDrafter drafter = new PromptLookupDrafter(new int[] {1, 2, 3, 4, 5, 6}, 2, 4);
+
+        assertArrayEquals(new int[0], drafter.draft(8));
+    }
+
+    @Test
+    void draftsWhatFollowedTheMostRecentOccurrence() {
+        // [7, 8] occurs twice before the suffix; the later occurrence was followed by 30, 31
+        PromptLookupDrafter drafter = new PromptLookupDrafter(new int[] {7, 8, 20, 21, 7, 8, 30, 31, 9, 7, 8}, 2, 2);
+
+        assertArrayEquals(new int[] {30, 31}, drafter.draft(2));
+        assertArrayEquals(new int[] {30, 31, 9, 7, 8}, drafter.draft(10));
+    }
+
+    @Test
+    void prefersTheLongestMatchingNgram() {
+        // The bigram [2, 3] last occurred before 40, but the trigram [1, 2, 3] only before 10
+        PromptLookupDrafter drafter = new PromptLookupDrafter(new int[] {1, 2, 3, 10, 11, 2, 3, 40, 1, 2, 3}, 2, 3);
+
+        assertArrayEquals(new int[] {10, 11}, drafter.draft(2));
+    }
+
+    @Test
+    void matchAtTheTailDraftsOnlyTheTokensThatExist() {
+        // The suffix [5, 5] last occurred one token earlier, so a single token follows it
+        PromptLookupDrafter drafter = new PromptLookupDrafter(new int[] {1, 5, 5, 5}, 2, 2);
+
+        assertArrayEquals(new int[] {5}, drafter.draft(10));
+    }
+
+    @Test
+    void acceptedTokensExtendTheSearchableSequence() {
+        PromptLookupDrafter drafter = new PromptLookupDrafter(new int[] {1, 2, 3, 4}, 2, 2);
+        assertArrayEquals(new int[0], drafter.draft(4));
+
+        drafter.accept(new int[] {9, 1, 2});
+
+        assertArrayEquals(new int[] {3, 4, 9, 1}, drafter.draft(4));
+    }
+
+    @Test
+    void rejectsAnInvalidNgramRange() {
+        assertThrows(IllegalArgumentException.class, () -> new PromptLookupDrafter(new int[0], 0, 2));
+        assertThrows(IllegalArgumentException.class, () -> new PromptLookupDrafter(new int[0], 3, 2));
+    }
+}
@@ -0,0 +1,101 @@
+package com.notebooklm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SemanticAnswerCacheTest {
+    private FakeCouchDB couch;
+    private CouchDBClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        couch = new FakeCouchDB();
+        client = new CouchDBClient(couch.getUrl(), "test", "admin", "secret");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        couch.close();
+    }
+
+    @Test
+    void returnsAnswerForParaphraseWithSameSources() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(client, 0.9, 10);
+        cache.put("What is RAG?", List.of(1.0f, 0.0f, 0.1f), List.of("a#0", "b#1"), "Retrieval-augmented generation");
+
+        // Scaled and slightly rotated: still well above the threshold, sources in another order
+        assertEquals("Retrieval-augmented generation",
+            cache.lookup(List.of(2.0f, 0.1f, 0.2f), List.of("b#1", "a#0")));
+    }
+
+    @Test
+    void missesBelowThresholdOrWithDifferentSources() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(client, 0.9, 10);
+        cache.put("What is RAG?", List.of(1.0f, 0.0f), List.of("a#0"), "answer");
+
+        assertNull(cache.lookup(List.of(0.5f, 0.5f), List.of("a#0")));
+        assertNull(cache.lookup(List.of(1.0f, 0.0f), List.of("a#0", "b#1")));
+        assertNull(cache.lookup(List.of(1.0f, 0.0f, 0.0f), List.of("a#0")));
+    }
+
+    @Test
+    void returnsClosestOfSeveralMatches() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(client, 0.5, 10);
+        cache.put("first", List.of(1.0f, 0.3f), List.of("a#0"), "first answer");
+        cache.put("second", List.of(1.0f, 0.05f), List.of("a#0"), "second answer");
+
+        assertEquals("second answer", cache.lookup(List.of(1.0f, 0.0f), List.of("a#0")));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntry() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(client, 0.99, 2);
+        cache.put("x", List.of(1.0f, 0.0f), List.of("s"), "x answer");
+        cache.put("y", List.of(0.0f, 1.0f), List.of("s"), "y answer");
+        // Touch x so y becomes the eldest
+        assertEquals("x answer", cache.lookup(List.of(1.0f, 0.0f), List.of("s")));
+        cache.put("z", List.of(-1.0f, 0.0f), List.of("s"), "z answer");
+
+        assertEquals(2, cache.size());
+        assertEquals("x answer", cache.lookup(List.of(1.0f, 0.0f), List.of("s")));
+        assertNull(cache.lookup(List.of(0.0f, 1.0f), List.of("s")));
+        assertEquals("z answer", cache.lookup(List.of(-1.0f, 0.0f), List.of("s")));
+    }
+
+    @Test
+    void reloadsPersistedEntries() throws Exception {
+        SemanticAnswerCache cache = new SemanticAnswerCache(client, 0.9, 10);
+        cache.put("What is RAG?", List.of(1.0f, 0.0f), List.of("a#0"), "persisted answer");
+        // Entries are persisted by the write-behind queue
+        assertTrue(client.flush(5, TimeUnit.SECONDS));
+
+        SemanticAnswerCache restarted = new SemanticAnswerCache(client, 0.9, 10);
+        assertEquals(1, restarted.size());
+        assertEquals("persisted answer", restarted.lookup(List.of(1.0f, 0.0f), List.of("a#0")));
+    }
+
+    @Test
+    void sourceIdDistinguishesFoldersAndEditedContent() {
+        String id = SemanticAnswerCache.sourceId(
+            new EnhancedDocumentProcessor.DocumentChunk("/a/notes.txt", "notes.txt", "old text", 0));
+
+        assertEquals(id, SemanticAnswerCache.sourceId(
+            new EnhancedDocumentProcessor.DocumentChunk("/a/notes.txt", "notes.txt", "old text", 0)));
+        assertNotEquals(id, SemanticAnswerCache.sourceId(
+            new EnhancedDocumentProcessor.DocumentChunk("/b/notes.txt", "notes.txt", "old text", 0)));
+        assertNotEquals(id, SemanticAnswerCache.sourceId(
+            new EnhancedDocumentProcessor.DocumentChunk("/a/notes.txt", "notes.txt", "edited text", 0)));
+        assertNotEquals(id, SemanticAnswerCache.sourceId(
+            new EnhancedDocumentProcessor.DocumentChunk("/a/notes.txt", "notes.txt", "old text", 1)));
+    }
+}